@@ -1,5 +1,7 @@
 package episcopal;
 
+import gc.Heap;
+import object.TagNotFoundException;
 import object.management.NullHeapException;
 import object.properties.ClassProperty;
 import object.properties.IntProperty;
@@ -19,7 +21,7 @@ public class Distrib<T extends DistributionRepresentation> extends EpiscopalObje
     public Distrib(final Class<T> distributionClass, int n) {
         super();
         this.distributionClass = distributionClass;
-        distributionType = new ClassProperty<>(distributionClass);
+        distributionType = new ClassProperty<>(distributionClass, EpiscopalType.REGISTRY);
         elementProperties = new ArrayList<>();
         addProperty(distributionType);
         addProperty(nElements);
@@ -30,9 +32,23 @@ public class Distrib<T extends DistributionRepresentation> extends EpiscopalObje
         }
     }
 
+    /**
+     * Recreate a distribution object which is already laid out in a heap, e.g. one found in a persisted heap.
+     * @param heap the heap holding the object
+     * @param address the address of the object in the heap
+     * @return an unallocated distribution object with the same shape as the one in the heap
+     * @throws TagNotFoundException if the object's representation class is not registered
+     */
+    @SuppressWarnings("unchecked")
+    public static Distrib<?> restore(Heap heap, long address) throws TagNotFoundException {
+        Class<? extends DistributionRepresentation> clazz = (Class<? extends DistributionRepresentation>)ClassProperty.read(heap, address, EpiscopalType.REGISTRY);
+        return new Distrib<>(clazz, (int)heap.get(address + ClassProperty.SIZE));
+    }
+
     @Override
     public void onAllocate() throws NullHeapException {
         set(distributionType, distributionClass);
+        nElements.setInt(elementProperties.size());
     }
 
     public ReferenceProperty<EpiscopalObject> elementAddress(int i) {
@@ -0,0 +1,121 @@
+package episcopal;
+
+import episcopal.representations.ClosureRepresentation;
+import episcopal.representations.DistributionRepresentation;
+import episcopal.representations.PDistributionRepresentation;
+import gc.Heap;
+import object.TagNotFoundException;
+import object.TypeRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The concrete Episcopal object types, used to record which type of object lives at an address so that the object can
+ * be recreated from the heap alone (e.g. when a persisted heap is reopened).
+ */
+public enum EpiscopalType {
+    INT(Int.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) {
+            return new Int();
+        }
+    },
+    DOUBLE(Double.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) {
+            return new Double();
+        }
+    },
+    PERCENTAGE(Percentage.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) {
+            return new Percentage();
+        }
+    },
+    BOOL(Bool.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) {
+            return new Bool();
+        }
+    },
+    INDIRECT(Indirect.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) {
+            return new Indirect<>();
+        }
+    },
+    DISTRIB(Distrib.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) throws TagNotFoundException {
+            return Distrib.restore(heap, address);
+        }
+    },
+    PDISTRIB(PDistrib.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) throws TagNotFoundException {
+            return PDistrib.restore(heap, address);
+        }
+    },
+    FUNCTION(Function.class) {
+        @Override
+        public EpiscopalObject restore(Heap heap, long address) throws TagNotFoundException {
+            return Function.restore(heap, address);
+        }
+    };
+
+    private static final EpiscopalType[] types = values();
+
+    private static final Map<Class<?>, EpiscopalType> byClass = new HashMap<>();
+
+    static {
+        for (EpiscopalType type : types)
+            byClass.put(type.clazz, type);
+    }
+
+    /**
+     * The registry the representation classes of Episcopal objects are tagged with. The built-in representations always
+     * have the same tags in it, so heaps referring to them can always be read back.
+     */
+    public static final TypeRegistry REGISTRY = TypeRegistry.DEFAULT;
+
+    static {
+        REGISTRY.register(DistributionRepresentation.class, 0);
+        REGISTRY.register(PDistributionRepresentation.class, 1);
+        REGISTRY.register(ClosureRepresentation.class, 2);
+    }
+
+    private final Class<? extends EpiscopalObject> clazz;
+
+    EpiscopalType(Class<? extends EpiscopalObject> clazz) {
+        this.clazz = clazz;
+    }
+
+    /**
+     * Create an unallocated object with the same shape as the object of this type at the given address. The new object
+     * is not associated with the heap or the address.
+     * @param heap the heap holding the object
+     * @param address the address of the object in the heap
+     * @return an object of this type, with the same properties as the object in the heap
+     * @throws TagNotFoundException if the object refers to a class which is not registered
+     */
+    public abstract EpiscopalObject restore(Heap heap, long address) throws TagNotFoundException;
+
+    /**
+     * @param object the object to find the type of
+     * @return the type of the given object, or null if it is not one of the Episcopal types
+     */
+    public static EpiscopalType of(EpiscopalObject object) {
+        return byClass.get(object.getClass());
+    }
+
+    /**
+     * @param ordinal the ordinal of a type, as given by {@link EpiscopalType#ordinal()}
+     * @return the type with the given ordinal, or null if there is no such type
+     */
+    public static EpiscopalType fromOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= types.length)
+            return null;
+        return types[ordinal];
+    }
+}
@@ -1,5 +1,7 @@
 package episcopal;
 
+import gc.Heap;
+import object.TagNotFoundException;
 import object.management.NullHeapException;
 import object.properties.ClassProperty;
 import object.properties.IntProperty;
@@ -19,7 +21,7 @@ public class Function<T extends ClosureRepresentation> extends EpiscopalObject {
     public Function(final Class<T> closureClass, int n) {
         super();
         this.closureClass = closureClass;
-        closureType = new ClassProperty<>(closureClass);
+        closureType = new ClassProperty<>(closureClass, EpiscopalType.REGISTRY);
         paramProperties = new ArrayList<>();
         addProperty(closureType);
         addProperty(nParams);
@@ -30,9 +32,23 @@ public class Function<T extends ClosureRepresentation> extends EpiscopalObject {
         }
     }
 
+    /**
+     * Recreate a function object which is already laid out in a heap, e.g. one found in a persisted heap.
+     * @param heap the heap holding the object
+     * @param address the address of the object in the heap
+     * @return an unallocated function object with the same shape as the one in the heap
+     * @throws TagNotFoundException if the object's closure class is not registered
+     */
+    @SuppressWarnings("unchecked")
+    public static Function<?> restore(Heap heap, long address) throws TagNotFoundException {
+        Class<? extends ClosureRepresentation> clazz = (Class<? extends ClosureRepresentation>)ClassProperty.read(heap, address, EpiscopalType.REGISTRY);
+        return new Function<>(clazz, (int)heap.get(address + ClassProperty.SIZE));
+    }
+
     @Override
     public void onAllocate() throws NullHeapException {
         set(closureType, closureClass);
+        nParams.setInt(paramProperties.size());
     }
 
     public ReferenceProperty<EpiscopalObject> paramAddress(int i) {
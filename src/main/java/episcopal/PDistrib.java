@@ -1,5 +1,9 @@
 package episcopal;
 
+import gc.Heap;
+import object.TagNotFoundException;
+import object.management.NullHeapException;
+import object.properties.ClassProperty;
 import object.properties.IntProperty;
 import episcopal.representations.PDistributionRepresentation;
 import object.properties.ReferenceProperty;
@@ -23,6 +27,27 @@ public class PDistrib<T extends PDistributionRepresentation> extends Distrib<T>
         }
     }
 
+    /**
+     * Recreate a parameterised distribution object which is already laid out in a heap, e.g. one found in a persisted
+     * heap.
+     * @param heap the heap holding the object
+     * @param address the address of the object in the heap
+     * @return an unallocated parameterised distribution object with the same shape as the one in the heap
+     * @throws TagNotFoundException if the object's representation class is not registered
+     */
+    @SuppressWarnings("unchecked")
+    public static PDistrib<?> restore(Heap heap, long address) throws TagNotFoundException {
+        Class<? extends PDistributionRepresentation> clazz = (Class<? extends PDistributionRepresentation>)ClassProperty.read(heap, address, EpiscopalType.REGISTRY);
+        int nElements = (int)heap.get(address + ClassProperty.SIZE);
+        return new PDistrib<>(clazz, nElements, (int)heap.get(address + ClassProperty.SIZE + 1 + nElements));
+    }
+
+    @Override
+    public void onAllocate() throws NullHeapException {
+        super.onAllocate();
+        nParams.setInt(paramProperties.size());
+    }
+
     public ReferenceProperty<EpiscopalObject> paramAddress(int i) {
         return paramProperties.get(i);
     }
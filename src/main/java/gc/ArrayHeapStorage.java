@@ -0,0 +1,38 @@
+package gc;
+
+/**
+ * {@link HeapStorage} held in a single Java {@code long[]}, i.e. inside the Java heap.
+ */
+public class ArrayHeapStorage implements HeapStorage {
+
+    private final long[] memory;
+
+    public ArrayHeapStorage(int size) {
+        memory = new long[size];
+    }
+
+    @Override
+    public long get(long address) {
+        return memory[(int)address];
+    }
+
+    @Override
+    public void put(long address, long value) {
+        memory[(int)address] = value;
+    }
+
+    @Override
+    public void get(long address, long[] destination, int offset, int length) {
+        System.arraycopy(memory, (int)address, destination, offset, length);
+    }
+
+    @Override
+    public void put(long address, long[] source, int offset, int length) {
+        System.arraycopy(source, offset, memory, (int)address, length);
+    }
+
+    @Override
+    public long size() {
+        return memory.length;
+    }
+}
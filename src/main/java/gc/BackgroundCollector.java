@@ -0,0 +1,85 @@
+package gc;
+
+/**
+ * A daemon thread which marks and sweeps a {@link TreadmillAllocator}'s treadmill while the program runs, one bounded
+ * step at a time, so that allocating threads are left to do as little collection work as possible. See
+ * {@link TreadmillAllocator#startCollector}.
+ */
+class BackgroundCollector implements Runnable {
+
+    private final TreadmillAllocator allocator;
+
+    private final long periodMillis;
+
+    private final int nodesPerStep;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private volatile AllocationException failure;
+
+    /**
+     * @param allocator the allocator to collect for
+     * @param periodMillis how long to wait before looking for more work, once there is none
+     * @param nodesPerStep the most grey nodes to scan in one step, i.e. while holding the allocator's lock
+     */
+    BackgroundCollector(TreadmillAllocator allocator, long periodMillis, int nodesPerStep) {
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("illegal collector period: " + periodMillis + "; period must be > 0");
+        if (nodesPerStep <= 0)
+            throw new IllegalArgumentException("illegal collector step: " + nodesPerStep + "; step must be > 0");
+        this.allocator = allocator;
+        this.periodMillis = periodMillis;
+        this.nodesPerStep = nodesPerStep;
+        thread = new Thread(this, "treadmill-collector");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return true if the collector has been started and has neither been stopped nor failed
+     */
+    boolean isRunning() {
+        return thread.isAlive() && failure == null;
+    }
+
+    /**
+     * Stop the collector and wait for it to finish its current step.
+     * @throws AllocationException if the collector had already stopped because a step failed
+     */
+    void stop() throws AllocationException {
+        running = false;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // only rest once a step finds nothing to do
+                if (!allocator.collectStep(nodesPerStep))
+                    Thread.sleep(periodMillis);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (AllocationException e) {
+            failure = e;
+        }
+    }
+}
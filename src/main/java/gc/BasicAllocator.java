@@ -3,58 +3,166 @@ package gc;
 import object.management.MemoryManagedObject;
 import object.management.PropertyAccessException;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
-public class BasicAllocator implements Allocator<MemoryManagedObject> {
+/**
+ * An allocator which places objects into free regions of a single heap, chosen by a {@link FitPolicy}.
+ * <p>
+ * By default the allocator is only safe to use from one thread. In concurrent mode (see
+ * {@link BasicAllocator#BasicAllocator(HeapStorage, FitPolicy, int)}) each thread instead takes a private buffer of
+ * free words from the heap and bump-allocates inside it, so that only refilling a buffer and freeing objects touch
+ * shared state.
+ * <p>
+ * The free regions are indexed either by Java {@link FreeRegion} objects, or (see
+ * {@link BasicAllocator#BasicAllocator(HeapStorage, FitPolicy, int, boolean)}) by headers written into the free words
+ * themselves.
+ */
+public class BasicAllocator implements HeapAllocator {
 
     public static final int HEAP_SIZE_DEFAULT = Integer.MAX_VALUE / 64;
 
+    public static final int BUFFER_SIZE_DEFAULT = 1 << 12;
+
+    /**
+     * A private region of the heap which a single thread allocates into from the bottom up. The words from top up to
+     * end are free, but belong to the owning thread until it retires the buffer. Only the owner moves top without the
+     * allocator's lock, so other threads may read a buffer's free words while the owner is allocating.
+     */
+    private static final class AllocationBuffer {
+        final Thread owner = Thread.currentThread();
+        volatile long top;
+        volatile long end;
+    }
+
     private Heap heap;
 
-    private Set<MemoryManagedObject> objects;
+    // the first word of every allocated object
+    private ObjectStartBitmap objectStarts;
+
+    private int allocatedObjects;
+
+    private FreeSpaceIndex freeRegions;
+
+    // every object takes a multiple of this many words, so that no free region is too small for the index
+    private final int granule;
+
+    private FitPolicy fitPolicy;
+
+    // the size of the thread-local allocation buffers, or 0 if the allocator is not in concurrent mode
+    private final int bufferSize;
+
+    private ThreadLocal<AllocationBuffer> buffers;
+
+    // every buffer given to a thread, so that their free words can be accounted for
+    private List<AllocationBuffer> allBuffers;
+
+    // the number of objects allocated in concurrent mode, counted without contention between threads
+    private LongAdder bufferedObjects;
+
+    /**
+     * @param storage the storage to hold the words of the heap in
+     * @param fitPolicy the policy to choose the free region to allocate an object into with
+     */
+    public BasicAllocator(HeapStorage storage, FitPolicy fitPolicy) {
+        this(storage, fitPolicy, 0);
+    }
+
+    /**
+     * Create an allocator which may be called from several threads at once. Each thread allocates into its own buffer
+     * of free words taken from the heap, so allocation scales with the number of threads. Objects larger than half a
+     * buffer are placed directly into the shared free space.
+     * @param storage the storage to hold the words of the heap in
+     * @param fitPolicy the policy to choose the free region to take each buffer from with
+     * @param bufferSize the number of words to give each thread at a time, or 0 to only allow use from a single thread
+     */
+    public BasicAllocator(HeapStorage storage, FitPolicy fitPolicy, int bufferSize) {
+        this(storage, fitPolicy, bufferSize, false);
+    }
+
+    /**
+     * @param storage the storage to hold the words of the heap in
+     * @param fitPolicy the policy to choose the free region to allocate an object into with
+     * @param bufferSize the number of words to give each thread at a time, or 0 to only allow use from a single thread
+     * @param inHeapFreeList whether to keep the index of free regions inside the free words of the heap (see
+     *                       {@link HeapFreeRegionTree}) rather than in Java objects. Every object then takes a multiple
+     *                       of {@link HeapFreeRegionTree#MIN_REGION_SIZE} words, so that each free region can hold its
+     *                       header, and the heap may be at most {@link HeapFreeRegionTree#MAX_HEAP_SIZE} words.
+     */
+    public BasicAllocator(HeapStorage storage, FitPolicy fitPolicy, int bufferSize, boolean inHeapFreeList) {
+        if (bufferSize < 0)
+            throw new IllegalArgumentException("buffer size must not be negative");
+        heap = new Heap(storage);
+        objectStarts = new ObjectStartBitmap(heap.getSize());
+        this.fitPolicy = fitPolicy;
+        if (inHeapFreeList) {
+            freeRegions = new HeapFreeRegionTree(heap);
+            granule = HeapFreeRegionTree.MIN_REGION_SIZE;
+        } else {
+            freeRegions = new FreeRegionTree();
+            granule = 1;
+        }
+        this.bufferSize = (int)roundUp(bufferSize);
+        long usable = heap.getSize() - heap.getSize() % granule;
+        if (usable > 0)
+            freeRegions.insert(0, usable);
+        if (bufferSize > 0) {
+            allBuffers = new ArrayList<>();
+            bufferedObjects = new LongAdder();
+            buffers = ThreadLocal.withInitial(() -> {
+                AllocationBuffer buffer = new AllocationBuffer();
+                synchronized (freeRegions) {
+                    allBuffers.add(buffer);
+                }
+                return buffer;
+            });
+        }
+    }
 
-    private FreeRegion freeRoot;
+    /**
+     * @param storage the storage to hold the words of the heap in
+     */
+    public BasicAllocator(HeapStorage storage) {
+        this(storage, FitPolicy.FIRST_FIT);
+    }
 
     public BasicAllocator(int heapSize) {
-        heap = new Heap(heapSize);
-        objects = new HashSet<>();
-        freeRoot = new FreeRegion(0, heap.getSize(), null);
+        this(new ArrayHeapStorage(heapSize));
     }
 
+    /**
+     * Use a heap of the default size, whose storage is only allocated as it is used.
+     */
     public BasicAllocator() {
-        this(HEAP_SIZE_DEFAULT);
+        this(new ChunkedHeapStorage(HEAP_SIZE_DEFAULT));
+    }
+
+    /**
+     * @return true if the allocator may be used from several threads at once
+     */
+    public boolean isConcurrent() {
+        return bufferSize > 0;
     }
 
     public void allocate(MemoryManagedObject object) throws AllocationException {
-        // TODO free region coalescing
-        // find the first free region with enough space to allocate the object
-        FreeRegion previous = null, current = freeRoot;
-        while (current != null && current.getSize() < object.size()) {
-            previous = current;
-            current = current.getNext();
-        }
-        // if we reached the end and there was no space
-        if (current == null)
-            throw new OutOfMemoryException("no space to allocate object \"" + object.toString() + "\" of size " + object.size() + " to heap");
-        int difference = current.getSize() - object.size();
-        object.setAddress(current.getAddress());
-        // if the difference is zero then we need to unlink this node from the chain
-        // otherwise simply reassign its address and size
-        if (difference <= 0) {
-            if (previous == null) {
-                // forget about current, reassign the root
-                freeRoot = current.getNext();
-            } else {
-                // make the previous free region the same as next, and forget about next
-                previous.setNext(current.getNext());
-            }
+        if (isConcurrent()) {
+            object.setAddress(allocateFromBuffer(object));
+            object.setHeap(heap);
+            objectStarts.setAtomic(object.getAddress());
+            bufferedObjects.increment();
         } else {
-            current.setAddress(current.getAddress() + object.size());
-            current.setSize(difference);
+            long size = roundUp(object.size());
+            long address = takeFreeSpace(size, size);
+            if (address == Heap.NULL)
+                throw outOfMemory(object);
+            object.setAddress(address);
+            object.setHeap(heap);
+            objectStarts.set(address);
+            allocatedObjects++;
         }
-        object.setHeap(heap);
-        objects.add(object);
         // perform onAllocate behaviour if present
         try {
             object.onAllocate();
@@ -63,39 +171,304 @@ public class BasicAllocator implements Allocator<MemoryManagedObject> {
         }
     }
 
+    /**
+     * Freeing an object which is not allocated by this allocator (e.g. one which has already been freed) does nothing
+     * but disassociate it from its heap.
+     */
     public void free(MemoryManagedObject object) {
-        // always link the current free root as the new free root's next
-        // thus the unused space to the right of the last object is always at the end of the path
-        freeRoot = new FreeRegion(object.getAddress(), object.size(), freeRoot);
+        long address = object.getAddress();
+        if (object.getHeap() == heap && address >= 0 && address < heap.getSize()) {
+            if (isConcurrent()) {
+                synchronized (freeRegions) {
+                    if (objectStarts.get(address)) {
+                        objectStarts.clearAtomic(address);
+                        addFreeRegion(address, roundUp(object.size()));
+                        bufferedObjects.decrement();
+                    }
+                }
+            } else if (objectStarts.get(address)) {
+                objectStarts.clear(address);
+                addFreeRegion(address, roundUp(object.size()));
+                allocatedObjects--;
+            }
+        }
         object.setHeap(null);
-        objects.remove(object);
     }
 
+    /**
+     * @param address an address in the heap
+     * @return true if an allocated object starts at the given address
+     */
+    public boolean isObjectStart(long address) {
+        return address >= 0 && address < heap.getSize() && objectStarts.get(address);
+    }
+
+    /**
+     * Allocated objects can be walked in address order by starting from address 0 and passing the address after each
+     * object found.
+     * @param address the address to start looking from
+     * @return the address of the first allocated object at or after the given address, or {@link Heap#NULL} if there
+     * are none
+     */
+    public long nextObjectStart(long address) {
+        return objectStarts.next(address);
+    }
+
+    /**
+     * Return the unused words of the calling thread's allocation buffer to the shared free space, e.g. before the
+     * thread finishes. The thread is given a new buffer if it allocates again. Does nothing unless the allocator is in
+     * concurrent mode.
+     */
+    public void retireBuffer() {
+        if (!isConcurrent())
+            return;
+        AllocationBuffer buffer = buffers.get();
+        synchronized (freeRegions) {
+            addFreeRegion(buffer.top, buffer.end - buffer.top);
+            buffer.top = buffer.end = 0;
+        }
+    }
+
+    /**
+     * Find space for an object in the calling thread's allocation buffer, refilling the buffer if it is too full.
+     * @return the address of the space for the object
+     */
+    private long allocateFromBuffer(MemoryManagedObject object) throws OutOfMemoryException {
+        long size = roundUp(object.size());
+        AllocationBuffer buffer = buffers.get();
+        if (buffer.end - buffer.top < size) {
+            synchronized (freeRegions) {
+                // large objects would waste most of a buffer, so they go straight into the shared free space
+                if (size > bufferSize / 2) {
+                    long address = takeFreeSpace(size, size);
+                    if (address == Heap.NULL)
+                        throw outOfMemory(object);
+                    return address;
+                }
+                addFreeRegion(buffer.top, buffer.end - buffer.top);
+                buffer.top = buffer.end = 0;
+                // prefer a whole buffer, but settle for any region the object fits in
+                long address = takeFreeSpace(bufferSize, bufferSize);
+                long taken = bufferSize;
+                if (address == Heap.NULL) {
+                    long region = freeRegions.find(size, fitPolicy);
+                    if (region == Heap.NULL)
+                        throw outOfMemory(object);
+                    taken = freeRegions.sizeOf(region);
+                    address = takeFreeSpace(size, taken);
+                }
+                buffer.top = address;
+                buffer.end = address + taken;
+            }
+        }
+        long address = buffer.top;
+        buffer.top += size;
+        return address;
+    }
+
+    /**
+     * Take words from the front of a free region, keeping whatever is left over of the region.
+     * @param size the minimum number of words needed
+     * @param taken the number of words to take, which must be at least size, and no more than the region chosen holds
+     * @return the address of the first word taken, or {@link Heap#NULL} if no region holds enough words
+     */
+    private long takeFreeSpace(long size, long taken) {
+        long address = freeRegions.find(size, fitPolicy);
+        if (address == Heap.NULL)
+            return Heap.NULL;
+        long regionSize = freeRegions.sizeOf(address);
+        freeRegions.remove(address);
+        if (regionSize > taken)
+            freeRegions.insert(address + taken, regionSize - taken);
+        return address;
+    }
+
+    /**
+     * @param size a number of words
+     * @return the number of words an object of the given size takes
+     */
+    private long roundUp(long size) {
+        return (size + granule - 1) / granule * granule;
+    }
+
+    private static OutOfMemoryException outOfMemory(MemoryManagedObject object) {
+        return new OutOfMemoryException("no space to allocate object \"" + object.toString() + "\" of size " + object.size() + " to heap");
+    }
+
+    /**
+     * Mark the given words as free, merging them with any free regions directly either side of them.
+     * @param address the first word to free
+     * @param size the number of words to free
+     */
+    private void addFreeRegion(long address, long size) {
+        if (size <= 0)
+            return;
+        long before = freeRegions.floor(address - 1);
+        long after = freeRegions.ceiling(address + size);
+        if (before != Heap.NULL) {
+            long beforeSize = freeRegions.sizeOf(before);
+            if (before + beforeSize == address) {
+                freeRegions.remove(before);
+                address = before;
+                size += beforeSize;
+            }
+        }
+        if (after != Heap.NULL && after == address + size) {
+            size += freeRegions.sizeOf(after);
+            freeRegions.remove(after);
+        }
+        freeRegions.insert(address, size);
+    }
+
+    /**
+     * Make sure no other thread holds free words in an allocation buffer, as they could carry on allocating into it
+     * while the heap is rebuilt or moved underneath them. The calling thread's own buffer may be live.
+     * @throws IllegalStateException if another thread has a live buffer
+     */
+    private void checkNoForeignBuffers() {
+        if (!isConcurrent())
+            return;
+        for (AllocationBuffer buffer : allBuffers)
+            if (buffer.owner != Thread.currentThread() && buffer.top != buffer.end)
+                throw new IllegalStateException("thread \"" + buffer.owner.getName() + "\" still holds an allocation buffer; every other thread must retire its buffer first");
+    }
+
+    /**
+     * In concurrent mode, every other thread must have retired its allocation buffer (see {@link #retireBuffer()}).
+     * @throws IllegalStateException if another thread still holds a live allocation buffer
+     */
+    @Override
+    public void restore(Collection<? extends MemoryManagedObject> liveObjects) throws AllocationException {
+        List<MemoryManagedObject> sorted = new ArrayList<>(liveObjects);
+        sorted.sort(Comparator.comparingLong(MemoryManagedObject::getAddress));
+        synchronized (freeRegions) {
+            checkNoForeignBuffers();
+            objectStarts.clearAll();
+            allocatedObjects = 0;
+            freeRegions.clear();
+            if (isConcurrent()) {
+                // every buffer's words are either live or free in the restored heap
+                for (AllocationBuffer buffer : allBuffers)
+                    buffer.top = buffer.end = 0;
+                bufferedObjects.reset();
+            }
+            long end = 0;
+            for (MemoryManagedObject object : sorted) {
+                long size = roundUp(object.size());
+                if (object.getAddress() < end || object.getAddress() % granule != 0 || object.getAddress() + size > heap.getSize())
+                    throw new AllocationException("cannot restore object \"" + object.toString() + "\" at address " + object.getAddress() + " with size " + object.size());
+                if (object.getAddress() > end)
+                    freeRegions.insert(end, object.getAddress() - end);
+                end = object.getAddress() + size;
+                object.setHeap(heap);
+                objectStarts.set(object.getAddress());
+                if (isConcurrent())
+                    bufferedObjects.increment();
+                else
+                    allocatedObjects++;
+            }
+            long usable = heap.getSize() - heap.getSize() % granule;
+            if (end < usable)
+                freeRegions.insert(end, usable - end);
+        }
+    }
+
+    /**
+     * Slide every allocated object down towards address 0, keeping their order, so that all of the free space becomes a
+     * single region at the top of the heap. Each object's address is updated, but references to it held in the heap are
+     * not; the caller must rewrite those afterwards (e.g. by reading each {@link object.properties.ReferenceProperty}
+     * again, which takes the address of its instance). In concurrent mode, every other thread must have retired its
+     * allocation buffer (see {@link #retireBuffer()}).
+     * @param liveObjects every object allocated by this allocator
+     * @throws AllocationException if the objects given are not exactly the ones allocated by this allocator
+     * @throws IllegalStateException if another thread still holds a live allocation buffer
+     */
+    public void compact(Collection<? extends MemoryManagedObject> liveObjects) throws AllocationException {
+        List<MemoryManagedObject> sorted = new ArrayList<>(liveObjects);
+        sorted.sort(Comparator.comparingLong(MemoryManagedObject::getAddress));
+        synchronized (freeRegions) {
+            checkNoForeignBuffers();
+            // an object left out would be overwritten
+            if (sorted.size() != allocatedObjects())
+                throw new AllocationException("cannot compact the heap with " + sorted.size() + " of its " + allocatedObjects() + " objects");
+            for (MemoryManagedObject object : sorted)
+                if (object.getHeap() != heap || !isObjectStart(object.getAddress()))
+                    throw new AllocationException("cannot compact the heap with object \"" + object.toString() + "\", which is not allocated in it");
+            long[] words = new long[0];
+            long end = 0;
+            for (MemoryManagedObject object : sorted) {
+                int size = object.size();
+                if (object.getAddress() != end) {
+                    if (words.length < size)
+                        words = new long[size];
+                    heap.get(object.getAddress(), words, 0, size);
+                    heap.put(end, words, 0, size);
+                    object.setAddress(end);
+                }
+                end += roundUp(size);
+            }
+        }
+        restore(sorted);
+    }
+
+    /**
+     * @return the fraction of the free space (not counting allocation buffers) which is not part of the largest free
+     * region, from 0 when the free space is a single region, towards 1 as it is split into many small ones
+     */
+    public double fragmentation() {
+        synchronized (freeRegions) {
+            long space = freeRegions.space();
+            return space == 0 ? 0 : 1 - (double)freeRegions.largest() / space;
+        }
+    }
+
+    @Override
     public int allocatedObjects() {
-        return objects.size();
+        return isConcurrent() ? bufferedObjects.intValue() : allocatedObjects;
     }
 
+    /**
+     * @return the number of free regions in the shared free space, not counting the unused words of any allocation
+     * buffers
+     */
     public int freeRegions() {
-        int length = 0;
-        FreeRegion current = freeRoot;
-        while (current != null) {
-            length++;
-            current = current.getNext();
+        synchronized (freeRegions) {
+            return freeRegions.count();
+        }
+    }
+
+    /**
+     * In concurrent mode, this includes the unused words of every thread's allocation buffer, and is only approximate
+     * while other threads are allocating.
+     */
+    @Override
+    public long freeSpace() {
+        synchronized (freeRegions) {
+            long space = freeRegions.space();
+            if (isConcurrent())
+                for (AllocationBuffer buffer : allBuffers)
+                    space += buffer.end - buffer.top;
+            return space;
         }
-        return length;
     }
 
-    public int freeSpace() {
-        int space = 0;
-        FreeRegion current = freeRoot;
-        while (current != null) {
-            space += current.getSize();
-            current = current.getNext();
+    /**
+     * @return the size of the largest free region in the shared free space, i.e. the largest object which can
+     * currently be allocated by a thread whose buffer is full
+     */
+    public long largestFreeRegion() {
+        synchronized (freeRegions) {
+            return freeRegions.largest();
         }
-        return space;
     }
 
-    public int heapSize() {
+    @Override
+    public long heapSize() {
         return heap.getSize();
     }
+
+    @Override
+    public Heap getHeap() {
+        return heap;
+    }
 }
@@ -0,0 +1,243 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A binary buddy allocator. Every object is given a block of a power-of-two number of words, aligned to its own size,
+ * so the "buddy" of a block (the other half of the block it was split from) is found by flipping one bit of its
+ * address. Allocation and freeing take O(log n) time, and merging a block with its free buddy takes constant time, in
+ * exchange for wasting up to half of each block.
+ * <p>
+ * The free blocks of each size form a doubly-linked list, kept inside the free blocks themselves: the first word of a
+ * free block holds the address of the previous block in its list and the second word the next. Blocks are therefore
+ * never smaller than two words.
+ * <p>
+ * Free and allocated blocks are also tracked in bit sets per order, indexed by block number, so the heap may be at
+ * most {@link BuddyAllocator#MAX_HEAP_SIZE} words. Freeing an object which does not start an allocated block of its
+ * size (e.g. one freed twice, or allocated elsewhere) does nothing.
+ */
+public class BuddyAllocator implements HeapAllocator {
+
+    /**
+     * The order of the smallest block, large enough to hold a free block's links.
+     */
+    public static final int MIN_ORDER = 1;
+
+    private static final int MAX_ORDER = 30;
+
+    public static final long MAX_HEAP_SIZE = 1L << 32;
+
+    private static final int PREV = 0, NEXT = 1;
+
+    private Heap heap;
+
+    // the first free block of each order, or Heap.NULL
+    private final long[] freeLists = new long[MAX_ORDER + 1];
+
+    // for each order, whether the block of that order at (address >> order) is free
+    private final BitSet[] freeBlocks = new BitSet[MAX_ORDER + 1];
+
+    // for each order, whether the block of that order at (address >> order) holds an object
+    private final BitSet[] allocatedBlocks = new BitSet[MAX_ORDER + 1];
+
+    // bit n is set if there are any free blocks of order n
+    private int nonEmptyOrders;
+
+    private long freeSpace;
+
+    private int allocatedObjects;
+
+    /**
+     * @param storage the storage to hold the words of the heap in
+     */
+    public BuddyAllocator(HeapStorage storage) {
+        if (storage.size() > MAX_HEAP_SIZE)
+            throw new IllegalArgumentException("illegal buddy heap size: " + storage.size() + "; size must be at most " + MAX_HEAP_SIZE);
+        heap = new Heap(storage);
+        for (int order = 0; order <= MAX_ORDER; order++) {
+            freeBlocks[order] = new BitSet();
+            allocatedBlocks[order] = new BitSet();
+        }
+        clear();
+        addFreeSpace(0, heap.getSize());
+    }
+
+    public BuddyAllocator(int heapSize) {
+        this(new ArrayHeapStorage(heapSize));
+    }
+
+    public BuddyAllocator() {
+        this(new ChunkedHeapStorage(BasicAllocator.HEAP_SIZE_DEFAULT));
+    }
+
+    @Override
+    public void allocate(MemoryManagedObject object) throws AllocationException {
+        int order = orderOf(object.size());
+        // find the smallest order with a free block at least as large as the one needed
+        int available = order > MAX_ORDER ? 0 : nonEmptyOrders & (-1 << order);
+        if (available == 0)
+            throw new OutOfMemoryException("no space to allocate object \"" + object.toString() + "\" of size " + object.size() + " to heap");
+        int blockOrder = Integer.numberOfTrailingZeros(available);
+        long address = freeLists[blockOrder];
+        removeFreeBlock(address, blockOrder);
+        // split the block in half until it is the right size, freeing the upper halves
+        while (blockOrder > order) {
+            blockOrder--;
+            pushFreeBlock(address + (1 << blockOrder), blockOrder);
+        }
+        allocatedBlocks[order].set((int)(address >> order));
+        object.setAddress(address);
+        object.setHeap(heap);
+        allocatedObjects++;
+        // perform onAllocate behaviour if present
+        try {
+            object.onAllocate();
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+    }
+
+    @Override
+    public void free(MemoryManagedObject object) {
+        long address = object.getAddress();
+        int order = orderOf(object.size());
+        if (object.getHeap() == heap && order <= MAX_ORDER && address >= 0 && address < heap.getSize() && (address & (1L << order) - 1) == 0 && allocatedBlocks[order].get((int)(address >> order))) {
+            allocatedBlocks[order].clear((int)(address >> order));
+            freeBlock(address, order);
+            allocatedObjects--;
+        }
+        object.setHeap(null);
+    }
+
+    @Override
+    public void restore(Collection<? extends MemoryManagedObject> liveObjects) throws AllocationException {
+        List<MemoryManagedObject> sorted = new ArrayList<>(liveObjects);
+        sorted.sort(Comparator.comparingLong(MemoryManagedObject::getAddress));
+        clear();
+        long end = 0;
+        for (MemoryManagedObject object : sorted) {
+            int order = orderOf(object.size());
+            int blockSize = 1 << order;
+            if (object.getAddress() < end || object.getAddress() % blockSize != 0 || object.getAddress() + blockSize > heap.getSize())
+                throw new AllocationException("object \"" + object.toString() + "\" at address " + object.getAddress() + " with size " + object.size() + " is not in a buddy block");
+            addFreeSpace(end, object.getAddress());
+            end = object.getAddress() + blockSize;
+            allocatedBlocks[order].set((int)(object.getAddress() >> order));
+            object.setHeap(heap);
+            allocatedObjects++;
+        }
+        addFreeSpace(end, heap.getSize());
+    }
+
+    @Override
+    public Heap getHeap() {
+        return heap;
+    }
+
+    @Override
+    public long heapSize() {
+        return heap.getSize();
+    }
+
+    @Override
+    public long freeSpace() {
+        return freeSpace;
+    }
+
+    @Override
+    public int allocatedObjects() {
+        return allocatedObjects;
+    }
+
+    /**
+     * @return the size of the largest free block, i.e. the largest object which can currently be allocated
+     */
+    public int largestFreeBlock() {
+        return nonEmptyOrders == 0 ? 0 : 1 << (31 - Integer.numberOfLeadingZeros(nonEmptyOrders));
+    }
+
+    /**
+     * @param size the size of an object
+     * @return the order of the block the object is placed in, i.e. the log of the block's size
+     */
+    public static int orderOf(int size) {
+        if (size <= 1 << MIN_ORDER)
+            return MIN_ORDER;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    //******** BLOCK HELPERS ********//
+
+    private void clear() {
+        for (int order = 0; order <= MAX_ORDER; order++) {
+            freeLists[order] = Heap.NULL;
+            freeBlocks[order].clear();
+            allocatedBlocks[order].clear();
+        }
+        nonEmptyOrders = 0;
+        freeSpace = 0;
+        allocatedObjects = 0;
+    }
+
+    /**
+     * Free the words between the given addresses, as the largest aligned blocks which fit.
+     */
+    private void addFreeSpace(long start, long end) {
+        while (end - start >= 1 << MIN_ORDER) {
+            int order = Math.min(MAX_ORDER, 63 - Long.numberOfLeadingZeros(end - start));
+            if (start != 0)
+                order = Math.min(order, Long.numberOfTrailingZeros(start));
+            freeBlock(start, order);
+            start += 1 << order;
+        }
+    }
+
+    /**
+     * Free a block, merging it with its buddy for as long as the buddy is also free.
+     */
+    private void freeBlock(long address, int order) {
+        while (order < MAX_ORDER) {
+            long buddy = address ^ (1L << order);
+            if (!freeBlocks[order].get((int)(buddy >> order)))
+                break;
+            removeFreeBlock(buddy, order);
+            address = Math.min(address, buddy);
+            order++;
+        }
+        pushFreeBlock(address, order);
+    }
+
+    private void pushFreeBlock(long address, int order) {
+        long head = freeLists[order];
+        heap.put(address + PREV, Heap.NULL);
+        heap.put(address + NEXT, head);
+        if (head != Heap.NULL)
+            heap.put(head + PREV, address);
+        freeLists[order] = address;
+        freeBlocks[order].set((int)(address >> order));
+        nonEmptyOrders |= 1 << order;
+        freeSpace += 1 << order;
+    }
+
+    private void removeFreeBlock(long address, int order) {
+        long prev = heap.get(address + PREV);
+        long next = heap.get(address + NEXT);
+        if (prev == Heap.NULL)
+            freeLists[order] = next;
+        else
+            heap.put(prev + NEXT, next);
+        if (next != Heap.NULL)
+            heap.put(next + PREV, prev);
+        freeBlocks[order].clear((int)(address >> order));
+        if (freeLists[order] == Heap.NULL)
+            nonEmptyOrders &= ~(1 << order);
+        freeSpace -= 1 << order;
+    }
+}
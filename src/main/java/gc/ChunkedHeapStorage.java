@@ -0,0 +1,131 @@
+package gc;
+
+import java.util.Arrays;
+
+/**
+ * {@link HeapStorage} which reserves a maximum size up front, but only allocates the Java arrays holding its words a
+ * chunk at a time, the first time a word in each chunk is written. Words which have never been written read as 0. The
+ * cost of creating the storage and the memory it takes therefore follow how much of the heap is actually used, rather
+ * than its maximum size; an allocator which fills the heap from the bottom up (e.g. {@link BasicAllocator} with
+ * {@link FitPolicy#FIRST_FIT}) only ever commits as many chunks as its live objects span.
+ * <p>
+ * As no single Java array holds the whole heap, the storage may hold many more than 2^31 words: up to 2^31 chunks.
+ */
+public class ChunkedHeapStorage implements HeapStorage {
+
+    public static final int CHUNK_SIZE_DEFAULT = 1 << 16;
+
+    private final long[][] chunks;
+
+    private final long size;
+
+    private final int chunkShift;
+
+    private final int chunkMask;
+
+    private long committed;
+
+    /**
+     * @param size the maximum number of words in the storage
+     * @param chunkSize the number of words to allocate at a time, which must be a power of two
+     */
+    public ChunkedHeapStorage(long size, int chunkSize) {
+        if (size < 0)
+            throw new IllegalArgumentException("illegal chunked heap size: " + size + "; size must be >= 0");
+        if (chunkSize <= 0 || Integer.bitCount(chunkSize) != 1)
+            throw new IllegalArgumentException("illegal chunk size: " + chunkSize + "; size must be a power of two");
+        this.size = size;
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        chunkMask = chunkSize - 1;
+        long chunkCount = (size + chunkMask) >>> chunkShift;
+        if (chunkCount > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("illegal chunked heap size: " + size + "; size must fit in " + (Integer.MAX_VALUE - 8) + " chunks of " + chunkSize + " words");
+        chunks = new long[(int)chunkCount][];
+    }
+
+    /**
+     * @param size the maximum number of words in the storage
+     */
+    public ChunkedHeapStorage(long size) {
+        this(size, CHUNK_SIZE_DEFAULT);
+    }
+
+    @Override
+    public long get(long address) {
+        long[] chunk = chunks[(int)(address >>> chunkShift)];
+        return chunk == null ? 0 : chunk[(int)address & chunkMask];
+    }
+
+    @Override
+    public void put(long address, long value) {
+        long[] chunk = chunks[(int)(address >>> chunkShift)];
+        if (chunk == null) {
+            // an uncommitted word already reads as 0
+            if (value == 0)
+                return;
+            chunk = commit((int)(address >>> chunkShift));
+        }
+        chunk[(int)address & chunkMask] = value;
+    }
+
+    @Override
+    public void get(long address, long[] destination, int offset, int length) {
+        while (length > 0) {
+            long[] chunk = chunks[(int)(address >>> chunkShift)];
+            int start = (int)address & chunkMask;
+            int run = Math.min(length, chunkMask + 1 - start);
+            if (chunk == null)
+                Arrays.fill(destination, offset, offset + run, 0);
+            else
+                System.arraycopy(chunk, start, destination, offset, run);
+            address += run;
+            offset += run;
+            length -= run;
+        }
+    }
+
+    @Override
+    public void put(long address, long[] source, int offset, int length) {
+        while (length > 0) {
+            long[] chunk = chunks[(int)(address >>> chunkShift)];
+            if (chunk == null)
+                chunk = commit((int)(address >>> chunkShift));
+            int start = (int)address & chunkMask;
+            int run = Math.min(length, chunkMask + 1 - start);
+            System.arraycopy(source, offset, chunk, start, run);
+            address += run;
+            offset += run;
+            length -= run;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of words the storage has allocated so far
+     */
+    public long committedSize() {
+        synchronized (chunks) {
+            return committed;
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkMask + 1;
+    }
+
+    private long[] commit(int index) {
+        synchronized (chunks) {
+            // another thread may have committed the chunk first
+            if (chunks[index] == null) {
+                int length = (int)Math.min(chunkMask + 1, size - ((long)index << chunkShift));
+                chunks[index] = new long[length];
+                committed += length;
+            }
+            return chunks[index];
+        }
+    }
+}
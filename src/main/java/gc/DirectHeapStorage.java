@@ -0,0 +1,53 @@
+package gc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * {@link HeapStorage} held in a direct {@link ByteBuffer}, i.e. outside of the Java heap. The words are never scanned
+ * or moved by the host JVM's garbage collector, so the size of the managed heap has no effect on host GC pauses.
+ */
+public class DirectHeapStorage implements HeapStorage {
+
+    /**
+     * The largest number of words a single direct buffer can hold.
+     */
+    public static final int MAX_SIZE = Integer.MAX_VALUE / Long.BYTES;
+
+    private final LongBuffer memory;
+
+    public DirectHeapStorage(int size) {
+        if (size < 0 || size > MAX_SIZE)
+            throw new IllegalArgumentException("illegal direct heap size: " + size + "; size must be between 0 and " + MAX_SIZE);
+        memory = ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    @Override
+    public long get(long address) {
+        return memory.get((int)address);
+    }
+
+    @Override
+    public void put(long address, long value) {
+        memory.put((int)address, value);
+    }
+
+    @Override
+    public void get(long address, long[] destination, int offset, int length) {
+        // use absolute accesses so no buffer views (and no position state) need to be created
+        for (int i = 0; i < length; i++)
+            destination[offset + i] = memory.get((int)address + i);
+    }
+
+    @Override
+    public void put(long address, long[] source, int offset, int length) {
+        for (int i = 0; i < length; i++)
+            memory.put((int)address + i, source[offset + i]);
+    }
+
+    @Override
+    public long size() {
+        return memory.capacity();
+    }
+}
@@ -0,0 +1,12 @@
+package gc;
+
+public enum FitPolicy {
+    /**
+     * Allocate into the free region with the lowest address which is large enough.
+     */
+    FIRST_FIT,
+    /**
+     * Allocate into the smallest free region which is large enough, preferring lower addresses between equal sizes.
+     */
+    BEST_FIT
+}
@@ -1,42 +1,45 @@
 package gc;
 
+/**
+ * A node of a {@link FreeRegionTree}.
+ */
 public class FreeRegion {
 
-    private int address, size;
+    private long address, size;
 
-    private FreeRegion next;
+    // links and augmented data for the region's place in a FreeRegionTree, ordered by address
+    FreeRegion left, right;
+    long maxSize;
 
-    public FreeRegion(int address, int size, FreeRegion next) {
+    // links for the region's place in a FreeRegionTree, ordered by size
+    FreeRegion sizeLeft, sizeRight;
+
+    public FreeRegion(long address, long size) {
         this.address = address;
         this.size = size;
-        this.next = next;
-    }
-
-    public FreeRegion(int address, int size) {
-        this(address, size, null);
+        this.maxSize = size;
     }
 
-    public int getAddress() {
+    public long getAddress() {
         return address;
     }
 
-    public void setAddress(int address) {
+    public void setAddress(long address) {
         this.address = address;
     }
 
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
-    public void setSize(int size) {
+    public void setSize(long size) {
         this.size = size;
     }
 
-    public FreeRegion getNext() {
-        return next;
-    }
-
-    public void setNext(FreeRegion next) {
-        this.next = next;
+    /**
+     * @return the address of the first word after this region
+     */
+    public long getEnd() {
+        return address + size;
     }
 }
@@ -0,0 +1,317 @@
+package gc;
+
+/**
+ * A {@link FreeSpaceIndex} of {@link FreeRegion}s, ordered by address. The regions form a treap keyed on address, where
+ * each region also records the largest size in its subtree, so that the first region large enough for an allocation
+ * can be found in logarithmic time. The same regions form a second treap keyed on size (then address), which finds the
+ * best fitting region in logarithmic time. Removed regions are kept and reused by later insertions, so splitting and
+ * coalescing regions allocates nothing once the tree has held as many regions as it needs.
+ */
+public class FreeRegionTree implements FreeSpaceIndex {
+
+    private FreeRegion root;
+
+    private FreeRegion sizeRoot;
+
+    // removed regions, linked through their right links, for insert to reuse
+    private FreeRegion spare;
+
+    private int count;
+
+    private long space;
+
+    @Override
+    public void insert(long address, long size) {
+        FreeRegion region = newRegion(address, size);
+        root = insert(root, region);
+        sizeRoot = insertBySize(sizeRoot, region);
+        count++;
+        space += size;
+    }
+
+    @Override
+    public void remove(long address) {
+        FreeRegion region = region(address);
+        root = remove(root, region);
+        sizeRoot = removeBySize(sizeRoot, region);
+        count--;
+        space -= region.getSize();
+        region.left = region.sizeLeft = region.sizeRight = null;
+        region.right = spare;
+        spare = region;
+    }
+
+    @Override
+    public long sizeOf(long address) {
+        return region(address).getSize();
+    }
+
+    @Override
+    public void clear() {
+        root = sizeRoot = null;
+        count = 0;
+        space = 0;
+    }
+
+    @Override
+    public long find(long size, FitPolicy policy) {
+        FreeRegion region = policy == FitPolicy.BEST_FIT ? bestFit(size) : firstFit(size);
+        return region == null ? Heap.NULL : region.getAddress();
+    }
+
+    /**
+     * @param size the size required
+     * @return the free region with the lowest address of at least the given size, or null if there is none; the region
+     * is reused once it is removed from the tree
+     */
+    public FreeRegion firstFit(long size) {
+        FreeRegion node = root;
+        while (node != null) {
+            if (node.left != null && node.left.maxSize >= size)
+                node = node.left;
+            else if (node.getSize() >= size)
+                return node;
+            else if (node.right != null && node.right.maxSize >= size)
+                node = node.right;
+            else
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * @param size the size required
+     * @return the smallest free region of at least the given size (the one with the lowest address, of several), or
+     * null if there is none; the region is reused once it is removed from the tree
+     */
+    public FreeRegion bestFit(long size) {
+        FreeRegion node = sizeRoot, best = null;
+        while (node != null) {
+            if (node.getSize() >= size) {
+                best = node;
+                node = node.sizeLeft;
+            } else {
+                node = node.sizeRight;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public long floor(long address) {
+        FreeRegion region = floorRegion(address);
+        return region == null ? Heap.NULL : region.getAddress();
+    }
+
+    @Override
+    public long ceiling(long address) {
+        FreeRegion region = ceilingRegion(address);
+        return region == null ? Heap.NULL : region.getAddress();
+    }
+
+    /**
+     * @param address an address in the heap
+     * @return the free region with the greatest address less than or equal to the given address, or null if there is
+     * none
+     */
+    public FreeRegion floorRegion(long address) {
+        FreeRegion node = root, floor = null;
+        while (node != null) {
+            if (node.getAddress() == address)
+                return node;
+            if (node.getAddress() < address) {
+                floor = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * @param address an address in the heap
+     * @return the free region with the least address greater than or equal to the given address, or null if there is
+     * none
+     */
+    public FreeRegion ceilingRegion(long address) {
+        FreeRegion node = root, ceiling = null;
+        while (node != null) {
+            if (node.getAddress() == address)
+                return node;
+            if (node.getAddress() > address) {
+                ceiling = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return ceiling;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public long space() {
+        return space;
+    }
+
+    @Override
+    public long largest() {
+        return root == null ? 0 : root.maxSize;
+    }
+
+    private FreeRegion region(long address) {
+        FreeRegion region = floorRegion(address);
+        if (region == null || region.getAddress() != address)
+            throw new IllegalArgumentException("no free region at address " + address);
+        return region;
+    }
+
+    private FreeRegion newRegion(long address, long size) {
+        FreeRegion region = spare;
+        if (region == null)
+            return new FreeRegion(address, size);
+        spare = region.right;
+        region.right = null;
+        region.setAddress(address);
+        region.setSize(size);
+        region.maxSize = size;
+        return region;
+    }
+
+    //******** TREAP HELPERS ********//
+
+    private static FreeRegion insert(FreeRegion node, FreeRegion region) {
+        if (node == null)
+            return region;
+        if (region.getAddress() < node.getAddress()) {
+            node.left = insert(node.left, region);
+            if (priority(node.left) > priority(node))
+                node = rotateRight(node);
+        } else {
+            node.right = insert(node.right, region);
+            if (priority(node.right) > priority(node))
+                node = rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    private static FreeRegion remove(FreeRegion node, FreeRegion region) {
+        if (node == null)
+            return null;
+        if (node == region)
+            return merge(node.left, node.right);
+        if (region.getAddress() < node.getAddress())
+            node.left = remove(node.left, region);
+        else
+            node.right = remove(node.right, region);
+        update(node);
+        return node;
+    }
+
+    private static FreeRegion merge(FreeRegion left, FreeRegion right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (priority(left) > priority(right)) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static FreeRegion rotateRight(FreeRegion node) {
+        FreeRegion left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        return left;
+    }
+
+    private static FreeRegion rotateLeft(FreeRegion node) {
+        FreeRegion right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        return right;
+    }
+
+    private static FreeRegion insertBySize(FreeRegion node, FreeRegion region) {
+        if (node == null)
+            return region;
+        if (compareBySize(region, node) < 0) {
+            node.sizeLeft = insertBySize(node.sizeLeft, region);
+            if (priority(node.sizeLeft) > priority(node)) {
+                FreeRegion left = node.sizeLeft;
+                node.sizeLeft = left.sizeRight;
+                left.sizeRight = node;
+                node = left;
+            }
+        } else {
+            node.sizeRight = insertBySize(node.sizeRight, region);
+            if (priority(node.sizeRight) > priority(node)) {
+                FreeRegion right = node.sizeRight;
+                node.sizeRight = right.sizeLeft;
+                right.sizeLeft = node;
+                node = right;
+            }
+        }
+        return node;
+    }
+
+    private static FreeRegion removeBySize(FreeRegion node, FreeRegion region) {
+        if (node == null)
+            return null;
+        if (node == region)
+            return mergeBySize(node.sizeLeft, node.sizeRight);
+        if (compareBySize(region, node) < 0)
+            node.sizeLeft = removeBySize(node.sizeLeft, region);
+        else
+            node.sizeRight = removeBySize(node.sizeRight, region);
+        return node;
+    }
+
+    private static FreeRegion mergeBySize(FreeRegion left, FreeRegion right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (priority(left) > priority(right)) {
+            left.sizeRight = mergeBySize(left.sizeRight, right);
+            return left;
+        }
+        right.sizeLeft = mergeBySize(left, right.sizeLeft);
+        return right;
+    }
+
+    private static int compareBySize(FreeRegion a, FreeRegion b) {
+        int bySize = Long.compare(a.getSize(), b.getSize());
+        return bySize != 0 ? bySize : Long.compare(a.getAddress(), b.getAddress());
+    }
+
+    private static void update(FreeRegion node) {
+        long max = node.getSize();
+        if (node.left != null && node.left.maxSize > max)
+            max = node.left.maxSize;
+        if (node.right != null && node.right.maxSize > max)
+            max = node.right.maxSize;
+        node.maxSize = max;
+    }
+
+    /**
+     * Treap priorities are derived from a hash of the address, so no random state needs to be kept per region.
+     */
+    private static int priority(FreeRegion node) {
+        long h = node.getAddress() * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
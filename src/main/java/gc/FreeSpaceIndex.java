@@ -0,0 +1,62 @@
+package gc;
+
+/**
+ * An index of the non-overlapping free regions of a heap, each identified by the address of its first word.
+ */
+public interface FreeSpaceIndex {
+
+    /**
+     * @param address the first word of the region, which must not overlap any region already in the index
+     * @param size the number of words in the region
+     */
+    void insert(long address, long size);
+
+    /**
+     * @param address the first word of a region in the index
+     */
+    void remove(long address);
+
+    /**
+     * @param address the first word of a region in the index
+     * @return the number of words in the region
+     */
+    long sizeOf(long address);
+
+    void clear();
+
+    /**
+     * @param size the size required
+     * @param policy the policy to choose between regions which are large enough with
+     * @return the address of a free region of at least the given size, or {@link Heap#NULL} if there is none
+     */
+    long find(long size, FitPolicy policy);
+
+    /**
+     * @param address an address in the heap
+     * @return the greatest address of a region less than or equal to the given address, or {@link Heap#NULL} if there
+     * is none
+     */
+    long floor(long address);
+
+    /**
+     * @param address an address in the heap
+     * @return the least address of a region greater than or equal to the given address, or {@link Heap#NULL} if there
+     * is none
+     */
+    long ceiling(long address);
+
+    /**
+     * @return the number of free regions in the index
+     */
+    int count();
+
+    /**
+     * @return the total size of all free regions in the index
+     */
+    long space();
+
+    /**
+     * @return the size of the largest free region, or 0 if there are none
+     */
+    long largest();
+}
@@ -1,16 +1,33 @@
 package gc;
 
 import episcopal.EpiscopalObject;
+import episcopal.EpiscopalType;
 import object.management.MemoryManagedObject;
+import object.management.NullHeapException;
 import object.management.PropertyAccessException;
 import object.properties.IntProperty;
 import object.properties.ReferenceProperty;
 
+/**
+ * A node of a {@link TreadmillAllocator}'s treadmill. A node takes four words: a header, its links to the previous and
+ * next nodes, and the address of the object it references. The header packs together the node's colour, whether its
+ * object is a root, and the type of its object:
+ * <pre>
+ *     bits 0-3:  colour ({@link NodeType} ordinal)
+ *     bit 4:     root flag
+ *     bits 8-15: object type ({@link EpiscopalType} ordinal + 1, or 0 if unknown)
+ * </pre>
+ */
 public class GCNode<T extends EpiscopalObject> extends MemoryManagedObject {
 
     private static final NodeType[] nodeTypes = NodeType.values();
 
-    private final IntProperty type = new IntProperty();
+    private static final int COLOUR_MASK = 0xF;
+    private static final int ROOT_BIT = 1 << 4;
+    private static final int DATA_TYPE_SHIFT = 8;
+    private static final int DATA_TYPE_MASK = 0xFF << DATA_TYPE_SHIFT;
+
+    private final IntProperty header = new IntProperty();
     public final ReferenceProperty<GCNode<? super T>> prev;
     public final ReferenceProperty<GCNode<? super T>> next;
     public final ReferenceProperty<T> data;
@@ -20,7 +37,7 @@ public class GCNode<T extends EpiscopalObject> extends MemoryManagedObject {
         prev = new ReferenceProperty<>(prevInstance);
         next = new ReferenceProperty<>(nextInstance);
         data = new ReferenceProperty<>(dataInstance);
-        addProperty(type);
+        addProperty(header);
         addProperty(prev);
         addProperty(next);
         addProperty(data);
@@ -31,10 +48,70 @@ public class GCNode<T extends EpiscopalObject> extends MemoryManagedObject {
     }
 
     public NodeType type() throws PropertyAccessException {
-        return nodeTypes[type.get()];
+        return nodeTypes[header.getInt() & COLOUR_MASK];
     }
 
     public void setType(NodeType nodeType) throws PropertyAccessException {
-        type.set(nodeType.ordinal());
+        header.setInt((header.getInt() & ~COLOUR_MASK) | nodeType.ordinal());
+    }
+
+    /**
+     * Atomically change the colour of this node, if it has the expected colour, so that only one of several threads
+     * marking at once can claim the node. See {@link Heap#compareAndSet}.
+     * @param expected the colour the node must have
+     * @param updated the colour to give the node
+     * @return true if this call changed the node's colour
+     * @throws PropertyAccessException if the node is not associated with a heap
+     */
+    public boolean compareAndSetType(NodeType expected, NodeType updated) throws PropertyAccessException {
+        Heap heap = getHeap();
+        if (heap == null)
+            throw new NullHeapException("node \"" + toString() + "\" is not associated with a heap to change its colour");
+        // the header is the node's first word
+        long word;
+        do {
+            word = heap.get(getAddress());
+            if (nodeTypes[(int)word & COLOUR_MASK] != expected)
+                return false;
+        } while (!heap.compareAndSet(getAddress(), word, (int)((word & ~COLOUR_MASK) | updated.ordinal())));
+        return true;
+    }
+
+    /**
+     * Overwrite the whole header, e.g. when a node's words may hold anything beforehand.
+     * @param nodeType the colour of the node
+     * @param episcopalType the type of the referenced object, or null if it is unknown
+     * @param isRoot whether the referenced object is a distinguished root object
+     */
+    public void setHeader(NodeType nodeType, EpiscopalType episcopalType, boolean isRoot) throws PropertyAccessException {
+        int dataType = episcopalType == null ? 0 : episcopalType.ordinal() + 1;
+        header.setInt(nodeType.ordinal() | (isRoot ? ROOT_BIT : 0) | (dataType << DATA_TYPE_SHIFT));
+    }
+
+    /**
+     * @return the type of the object this node references, or null if it is unknown
+     */
+    public EpiscopalType dataType() throws PropertyAccessException {
+        return EpiscopalType.fromOrdinal(((header.getInt() & DATA_TYPE_MASK) >>> DATA_TYPE_SHIFT) - 1);
+    }
+
+    /**
+     * Record the type of the object this node references, so that it can be recreated from the heap alone.
+     * @param episcopalType the type of the referenced object, or null if it is unknown
+     */
+    public void setDataType(EpiscopalType episcopalType) throws PropertyAccessException {
+        int dataType = episcopalType == null ? 0 : episcopalType.ordinal() + 1;
+        header.setInt((header.getInt() & ~DATA_TYPE_MASK) | (dataType << DATA_TYPE_SHIFT));
+    }
+
+    /**
+     * @return true if this node references a distinguished root object
+     */
+    public boolean isRoot() throws PropertyAccessException {
+        return (header.getInt() & ROOT_BIT) != 0;
+    }
+
+    public void setRoot(boolean isRoot) throws PropertyAccessException {
+        header.setInt(isRoot ? header.getInt() | ROOT_BIT : header.getInt() & ~ROOT_BIT);
     }
 }
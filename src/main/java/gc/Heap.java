@@ -2,33 +2,92 @@ package gc;
 
 public class Heap {
 
-    public static final int NULL = -1;
+    public static final long NULL = -1;
 
-    private long[] memory;
+    // the storage has no atomic operations of its own, so compare-and-set takes one of these locks, chosen by address
+    private static final int LOCK_STRIPES = 64;
+
+    private final HeapStorage memory;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private volatile WriteBarrier writeBarrier;
+
+    public Heap(HeapStorage storage) {
+        memory = storage;
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+    }
 
     public Heap(int heapSize) {
-        memory = new long[heapSize];
+        this(new ArrayHeapStorage(heapSize));
     }
 
-    public void put(int address, long[] data) {
-        System.arraycopy(data, 0, memory, address, data.length);
+    public void put(long address, long[] data) {
+        memory.put(address, data, 0, data.length);
     }
 
-    public void put(int address, long data) {
-        memory[address] = data;
+    public void put(long address, long data) {
+        memory.put(address, data);
     }
 
-    public long[] get(int address, int length) {
+    public long[] get(long address, int length) {
         long[] data = new long[length];
-        System.arraycopy(memory, address, data, 0, length);
+        memory.get(address, data, 0, length);
         return data;
     }
 
-    public long get(int address) {
-        return memory[address];
+    /**
+     * Copy a run of words into a buffer supplied by the caller, rather than a new array.
+     */
+    public void get(long address, long[] destination, int offset, int length) {
+        memory.get(address, destination, offset, length);
+    }
+
+    /**
+     * Copy a run of words from part of a buffer supplied by the caller.
+     */
+    public void put(long address, long[] source, int offset, int length) {
+        memory.put(address, source, offset, length);
+    }
+
+    public long get(long address) {
+        return memory.get(address);
+    }
+
+    /**
+     * Atomically replace a word, if it holds the expected value. This is only atomic with respect to other calls of
+     * this method; plain {@link Heap#put} calls to the same word must not happen at the same time.
+     * @param address the address of the word
+     * @param expected the value the word must hold
+     * @param updated the value to give the word
+     * @return true if the word held the expected value and was replaced
+     */
+    public boolean compareAndSet(long address, long expected, long updated) {
+        synchronized (locks[(int)address & (LOCK_STRIPES - 1)]) {
+            if (memory.get(address) != expected)
+                return false;
+            memory.put(address, updated);
+            return true;
+        }
+    }
+
+    /**
+     * @param writeBarrier the barrier to make every reference store into an object in this heap through, or null for none
+     */
+    public void setWriteBarrier(WriteBarrier writeBarrier) {
+        this.writeBarrier = writeBarrier;
+    }
+
+    public WriteBarrier getWriteBarrier() {
+        return writeBarrier;
+    }
+
+    public long getSize() {
+        return memory.size();
     }
 
-    public int getSize() {
-        return memory.length;
+    public HeapStorage getStorage() {
+        return memory;
     }
 }
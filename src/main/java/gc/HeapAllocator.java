@@ -0,0 +1,41 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+
+import java.util.Collection;
+
+/**
+ * An {@link Allocator} which owns a single {@link Heap} and manages the free space within it. Any implementation can be
+ * used underneath a {@link TreadmillAllocator}.
+ */
+public interface HeapAllocator extends Allocator<MemoryManagedObject> {
+
+    /**
+     * @return the heap the allocator places objects into
+     */
+    Heap getHeap();
+
+    /**
+     * @return the total size of the heap, in words
+     */
+    long heapSize();
+
+    /**
+     * @return the number of words which are not in use by any object
+     */
+    long freeSpace();
+
+    /**
+     * @return the number of objects currently allocated
+     */
+    int allocatedObjects();
+
+    /**
+     * Rebuild the allocator's state for a heap whose objects are already in place (e.g. a persisted heap which has just
+     * been reopened). The given objects are associated with the heap at their current addresses without their
+     * {@link MemoryManagedObject#onAllocate()} behaviour, and every word outside of them becomes free space.
+     * @param liveObjects every object which occupies space in the heap
+     * @throws AllocationException if the objects could not have been placed where they are by this allocator
+     */
+    void restore(Collection<? extends MemoryManagedObject> liveObjects) throws AllocationException;
+}
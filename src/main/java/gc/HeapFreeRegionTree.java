@@ -0,0 +1,281 @@
+package gc;
+
+/**
+ * A {@link FreeSpaceIndex} kept inside the free regions themselves, so that it needs no Java objects and the heap alone
+ * describes which of its words are free. Like {@link FreeRegionTree}, the regions form a treap keyed on address where
+ * each region records the largest size in its subtree, but the treap's fields are packed into the first two words of
+ * every free region:
+ * <pre>
+ *     word 0: size (high 32 bits) | largest size in subtree (low 32 bits)
+ *     word 1: left child (high 32 bits) | right child (low 32 bits)
+ * </pre>
+ * Every region must therefore be at least {@link HeapFreeRegionTree#MIN_REGION_SIZE} words long, and the heap at most
+ * {@link HeapFreeRegionTree#MAX_HEAP_SIZE} words, so that every address and size fits in 32 bits.
+ * <p>
+ * First fit takes logarithmic time. There is no separate ordering by size, so best fit searches every subtree which
+ * could hold a large enough region, stopping early at an exact fit.
+ */
+public class HeapFreeRegionTree implements FreeSpaceIndex {
+
+    public static final int MIN_REGION_SIZE = 2;
+
+    public static final long MAX_HEAP_SIZE = Integer.MAX_VALUE;
+
+    private static final int SIZES = 0, CHILDREN = 1;
+
+    private static final long LOW = 0xFFFFFFFFL;
+
+    // Heap.NULL as stored in a 32-bit field
+    private static final int NULL = (int)Heap.NULL;
+
+    private final Heap heap;
+
+    private int root = NULL;
+
+    private int count;
+
+    private long space;
+
+    /**
+     * @param heap the heap whose free regions to keep the index in
+     */
+    public HeapFreeRegionTree(Heap heap) {
+        if (heap.getSize() > MAX_HEAP_SIZE)
+            throw new IllegalArgumentException("cannot keep the free regions of a heap of " + heap.getSize() + " words inside it; the heap must be at most " + MAX_HEAP_SIZE + " words");
+        this.heap = heap;
+    }
+
+    @Override
+    public void insert(long address, long size) {
+        if (size < MIN_REGION_SIZE)
+            throw new IllegalArgumentException("free region at " + address + " of size " + size + " is too small to index");
+        heap.put(address + SIZES, (size << 32) | (size & LOW));
+        heap.put(address + CHILDREN, ((long)NULL << 32) | (NULL & LOW));
+        root = insertNode(root, (int)address);
+        count++;
+        space += size;
+    }
+
+    @Override
+    public void remove(long address) {
+        long size = sizeOf(address);
+        root = removeNode(root, (int)address);
+        count--;
+        space -= size;
+    }
+
+    @Override
+    public long sizeOf(long address) {
+        return sizeOf((int)address);
+    }
+
+    @Override
+    public void clear() {
+        root = NULL;
+        count = 0;
+        space = 0;
+    }
+
+    @Override
+    public long find(long size, FitPolicy policy) {
+        if (size > MAX_HEAP_SIZE)
+            return Heap.NULL;
+        int node = policy == FitPolicy.BEST_FIT ? bestFit((int)size) : firstFit((int)size);
+        return node == NULL ? Heap.NULL : node;
+    }
+
+    private int firstFit(int size) {
+        int node = root;
+        while (node != NULL) {
+            int left = left(node), right = right(node);
+            if (left != NULL && maxSize(left) >= size)
+                node = left;
+            else if (sizeOf(node) >= size)
+                return node;
+            else if (right != NULL && maxSize(right) >= size)
+                node = right;
+            else
+                return NULL;
+        }
+        return NULL;
+    }
+
+    private int bestFit(int size) {
+        long best = bestFit(root, size, ((long)Integer.MAX_VALUE << 32) | (NULL & LOW));
+        return (int)best;
+    }
+
+    /**
+     * @param best the best fit found so far, as its size (high 32 bits) and address (low 32 bits)
+     * @return the best fit found in the subtree or before it, in the same form
+     */
+    private long bestFit(int node, int size, long best) {
+        if (node == NULL || maxSize(node) < size || (int)(best >>> 32) == size)
+            return best;
+        int nodeSize = sizeOf(node);
+        long left = bestFit(left(node), size, best);
+        // prefer the lower address between equal sizes
+        if (nodeSize >= size && nodeSize < (int)(left >>> 32))
+            left = ((long)nodeSize << 32) | (node & LOW);
+        return bestFit(right(node), size, left);
+    }
+
+    @Override
+    public long floor(long address) {
+        int node = root;
+        long floor = NULL;
+        while (node != NULL) {
+            if (node == address)
+                return node;
+            if (node < address) {
+                floor = node;
+                node = right(node);
+            } else {
+                node = left(node);
+            }
+        }
+        return floor;
+    }
+
+    @Override
+    public long ceiling(long address) {
+        int node = root;
+        long ceiling = NULL;
+        while (node != NULL) {
+            if (node == address)
+                return node;
+            if (node > address) {
+                ceiling = node;
+                node = left(node);
+            } else {
+                node = right(node);
+            }
+        }
+        return ceiling;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public long space() {
+        return space;
+    }
+
+    @Override
+    public long largest() {
+        return root == NULL ? 0 : maxSize(root);
+    }
+
+    //******** TREAP HELPERS ********//
+
+    private int insertNode(int node, int region) {
+        if (node == NULL)
+            return region;
+        if (region < node) {
+            int left = insertNode(left(node), region);
+            setLeft(node, left);
+            if (priority(left) > priority(node))
+                node = rotateRight(node);
+        } else {
+            int right = insertNode(right(node), region);
+            setRight(node, right);
+            if (priority(right) > priority(node))
+                node = rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    private int removeNode(int node, int region) {
+        if (node == NULL)
+            return NULL;
+        if (node == region)
+            return merge(left(node), right(node));
+        if (region < node)
+            setLeft(node, removeNode(left(node), region));
+        else
+            setRight(node, removeNode(right(node), region));
+        update(node);
+        return node;
+    }
+
+    private int merge(int left, int right) {
+        if (left == NULL)
+            return right;
+        if (right == NULL)
+            return left;
+        if (priority(left) > priority(right)) {
+            setRight(left, merge(right(left), right));
+            update(left);
+            return left;
+        }
+        setLeft(right, merge(left, left(right)));
+        update(right);
+        return right;
+    }
+
+    private int rotateRight(int node) {
+        int left = left(node);
+        setLeft(node, right(left));
+        setRight(left, node);
+        update(node);
+        return left;
+    }
+
+    private int rotateLeft(int node) {
+        int right = right(node);
+        setRight(node, left(right));
+        setLeft(right, node);
+        update(node);
+        return right;
+    }
+
+    private void update(int node) {
+        int size = sizeOf(node), max = size;
+        int left = left(node), right = right(node);
+        if (left != NULL && maxSize(left) > max)
+            max = maxSize(left);
+        if (right != NULL && maxSize(right) > max)
+            max = maxSize(right);
+        heap.put(node + SIZES, ((long)size << 32) | (max & LOW));
+    }
+
+    /**
+     * The same hash of the address as {@link FreeRegionTree} uses, so no random state needs to be kept per region.
+     */
+    private static int priority(int address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    //******** FIELD ACCESS ********//
+
+    private int sizeOf(int node) {
+        return (int)(heap.get(node + SIZES) >>> 32);
+    }
+
+    private int maxSize(int node) {
+        return (int)heap.get(node + SIZES);
+    }
+
+    private int left(int node) {
+        return (int)(heap.get(node + CHILDREN) >>> 32);
+    }
+
+    private int right(int node) {
+        return (int)heap.get(node + CHILDREN);
+    }
+
+    private void setLeft(int node, int left) {
+        long children = heap.get(node + CHILDREN);
+        heap.put(node + CHILDREN, ((long)left << 32) | (children & LOW));
+    }
+
+    private void setRight(int node, int right) {
+        long children = heap.get(node + CHILDREN);
+        heap.put(node + CHILDREN, (children & ~LOW) | (right & LOW));
+    }
+}
@@ -0,0 +1,316 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of a {@link TreadmillAllocator}'s heap, written by
+ * {@link TreadmillAllocator#writeSnapshot(WritableByteChannel)}. Only the words held by the treadmill's header, nodes
+ * and objects are written, as runs ("extents") of consecutive words; every other word is free. The snapshot is a
+ * sequence of little-endian 64-bit values:
+ * <pre>
+ *     magic, version, heap size in words
+ *     the addresses of the grey, black, white and ecru fronts
+ *     root count, then the address of each root
+ *     free region count, then the address and size of each free region
+ *     extent count, then for each extent its address, its length and its words
+ *     a CRC-32 of everything before it
+ * </pre>
+ * The fronts, roots and free regions are also described by the heap words themselves, and are written out so that
+ * tools can read a snapshot without interpreting the treadmill. Reading a snapshot back (see {@link #read}) streams
+ * the words into new storage and checks them against the checksum and the recorded fronts.
+ */
+public class HeapSnapshot {
+
+    public static final long MAGIC = 0x45504953534e4150L;
+
+    public static final long VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the number of heap words copied at a time
+    private static final int BLOCK_WORDS = BUFFER_SIZE / Long.BYTES;
+
+    private static final NodeType[] FRONTS = { NodeType.GREY, NodeType.BLACK, NodeType.WHITE, NodeType.ECRU };
+
+    private final HeapStorage storage;
+
+    private final long[] fronts;
+
+    private final long[] roots;
+
+    private final List<FreeRegion> freeRegions;
+
+    private HeapSnapshot(HeapStorage storage, long[] fronts, long[] roots, List<FreeRegion> freeRegions) {
+        this.storage = storage;
+        this.fronts = fronts;
+        this.roots = roots;
+        this.freeRegions = freeRegions;
+    }
+
+    /**
+     * @return the storage the snapshot's heap words were read into
+     */
+    public HeapStorage getStorage() {
+        return storage;
+    }
+
+    public long heapSize() {
+        return storage.size();
+    }
+
+    /**
+     * @param colour the colour to get the front for
+     * @return the address of the node at the front for the given colour, or {@link Heap#NULL} if there was none
+     */
+    public long getFront(NodeType colour) {
+        return fronts[colour.ordinal()];
+    }
+
+    /**
+     * @return the addresses of the treadmill's root objects, in address order
+     */
+    public long[] roots() {
+        return roots.clone();
+    }
+
+    /**
+     * @return the runs of words which no object held, in address order
+     */
+    public List<FreeRegion> freeRegions() {
+        return Collections.unmodifiableList(freeRegions);
+    }
+
+    /**
+     * Write a snapshot of a treadmill's heap. The references in the heap must already be up to date (see
+     * {@link TreadmillAllocator#sync()}).
+     * @param heap the heap holding the treadmill
+     * @param header the treadmill's header
+     * @param liveObjects every node and object of the treadmill, including the header
+     * @param roots the treadmill's root objects
+     * @param channel the channel to write the snapshot to
+     * @throws IOException if the snapshot could not be written
+     * @throws PropertyAccessException if the header could not be read
+     */
+    static void write(Heap heap, TreadmillHeader header, Collection<? extends MemoryManagedObject> liveObjects, Collection<? extends MemoryManagedObject> roots, WritableByteChannel channel) throws IOException, PropertyAccessException {
+        List<MemoryManagedObject> sorted = new ArrayList<>(liveObjects);
+        sorted.sort(Comparator.comparingLong(MemoryManagedObject::getAddress));
+        // merge the objects into runs of consecutive words, with the gaps between them free
+        List<long[]> extents = new ArrayList<>();
+        List<FreeRegion> free = new ArrayList<>();
+        long end = 0;
+        for (MemoryManagedObject object : sorted) {
+            long address = object.getAddress();
+            if (address > end)
+                free.add(new FreeRegion(end, address - end));
+            if (!extents.isEmpty() && address <= end) {
+                long[] last = extents.get(extents.size() - 1);
+                last[1] = Math.max(last[1], address + object.size() - last[0]);
+            } else {
+                extents.add(new long[] { address, object.size() });
+            }
+            end = Math.max(end, address + object.size());
+        }
+        if (end < heap.getSize())
+            free.add(new FreeRegion(end, heap.getSize() - end));
+        Writer writer = new Writer(channel);
+        writer.putLong(MAGIC);
+        writer.putLong(VERSION);
+        writer.putLong(heap.getSize());
+        for (NodeType colour : FRONTS)
+            writer.putLong(header.getFront(colour));
+        List<MemoryManagedObject> sortedRoots = new ArrayList<>(roots);
+        sortedRoots.sort(Comparator.comparingLong(MemoryManagedObject::getAddress));
+        writer.putLong(sortedRoots.size());
+        for (MemoryManagedObject root : sortedRoots)
+            writer.putLong(root.getAddress());
+        writer.putLong(free.size());
+        for (FreeRegion region : free) {
+            writer.putLong(region.getAddress());
+            writer.putLong(region.getSize());
+        }
+        writer.putLong(extents.size());
+        long[] block = new long[BLOCK_WORDS];
+        for (long[] extent : extents) {
+            writer.putLong(extent[0]);
+            writer.putLong(extent[1]);
+            for (long offset = 0; offset < extent[1]; offset += block.length) {
+                int length = (int)Math.min(block.length, extent[1] - offset);
+                heap.get(extent[0] + offset, block, 0, length);
+                for (int i = 0; i < length; i++)
+                    writer.putLong(block[i]);
+            }
+        }
+        writer.putLong(writer.checksum());
+        writer.flush();
+    }
+
+    /**
+     * Read a snapshot written by {@link TreadmillAllocator#writeSnapshot(WritableByteChannel)}.
+     * @param channel the channel to read the snapshot from
+     * @param storageFactory creates the storage to read the heap words into, given the size of the heap in words; words
+     *                       outside of the snapshot's extents are not written, so the storage must start out zeroed
+     * @return the snapshot, with its words in the new storage
+     * @throws IOException if the snapshot could not be read, is not a snapshot, or is corrupt
+     */
+    public static HeapSnapshot read(ReadableByteChannel channel, LongFunction<? extends HeapStorage> storageFactory) throws IOException {
+        Reader reader = new Reader(channel);
+        if (reader.getLong() != MAGIC)
+            throw new IOException("channel does not hold a heap snapshot");
+        long version = reader.getLong();
+        if (version != VERSION)
+            throw new IOException("heap snapshot has unsupported version " + version);
+        long heapSize = reader.getLong();
+        if (heapSize < 0)
+            throw new IOException("heap snapshot has illegal heap size " + heapSize);
+        long[] fronts = new long[FRONTS.length];
+        for (NodeType colour : FRONTS)
+            fronts[colour.ordinal()] = reader.getLong();
+        long[] roots = new long[count(reader.getLong(), heapSize)];
+        for (int i = 0; i < roots.length; i++)
+            roots[i] = reader.getLong();
+        List<FreeRegion> free = new ArrayList<>();
+        for (int i = count(reader.getLong(), heapSize); i > 0; i--)
+            free.add(new FreeRegion(reader.getLong(), reader.getLong()));
+        HeapStorage storage = storageFactory.apply(heapSize);
+        if (storage.size() != heapSize)
+            throw new IOException("cannot read a heap snapshot of " + heapSize + " words into storage of " + storage.size() + " words");
+        long[] block = new long[BLOCK_WORDS];
+        for (int i = count(reader.getLong(), heapSize); i > 0; i--) {
+            long address = reader.getLong(), length = reader.getLong();
+            if (address < 0 || length < 0 || address + length > heapSize)
+                throw new IOException("heap snapshot has an extent of " + length + " words at address " + address + " outside of its heap");
+            for (long offset = 0; offset < length; offset += block.length) {
+                int words = (int)Math.min(block.length, length - offset);
+                for (int j = 0; j < words; j++)
+                    block[j] = reader.getLong();
+                storage.put(address + offset, block, 0, words);
+            }
+        }
+        long checksum = reader.checksum();
+        if (reader.getLong() != checksum)
+            throw new IOException("heap snapshot is corrupt: checksum does not match");
+        // the fronts written out must be the ones the heap's own header records
+        TreadmillHeader header = new TreadmillHeader();
+        header.setHeap(new Heap(storage));
+        try {
+            if (heapSize < header.size() || !header.isValid())
+                throw new IOException("heap snapshot does not hold a treadmill");
+            for (NodeType colour : FRONTS)
+                if (header.getFront(colour) != fronts[colour.ordinal()])
+                    throw new IOException("heap snapshot is inconsistent: its " + colour + " front does not match the treadmill header");
+        } catch (PropertyAccessException e) {
+            throw new IOException(e);
+        }
+        return new HeapSnapshot(storage, fronts, roots, free);
+    }
+
+    private static int count(long count, long heapSize) throws IOException {
+        // nothing can be counted more times than there are words in the heap
+        if (count < 0 || count > heapSize || count > Integer.MAX_VALUE)
+            throw new IOException("heap snapshot has an illegal count " + count);
+        return (int)count;
+    }
+
+    /**
+     * Writes values through a fixed buffer, keeping a checksum of every byte written.
+     */
+    private static class Writer {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final CRC32 crc = new CRC32();
+
+        // the bytes of the buffer before this position have been checksummed
+        private int checksummed;
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES)
+                flush();
+            buffer.putLong(value);
+        }
+
+        /**
+         * @return the checksum of every value put so far
+         */
+        long checksum() {
+            crc.update(buffer.array(), checksummed, buffer.position() - checksummed);
+            checksummed = buffer.position();
+            return crc.getValue();
+        }
+
+        void flush() throws IOException {
+            checksum();
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+            checksummed = 0;
+        }
+    }
+
+    /**
+     * Reads values through a fixed buffer, keeping a checksum of every byte read.
+     */
+    private static class Reader {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final CRC32 crc = new CRC32();
+
+        // the bytes of the buffer before this position have been checksummed
+        private int checksummed;
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        long getLong() throws IOException {
+            if (buffer.remaining() < Long.BYTES)
+                refill();
+            return buffer.getLong();
+        }
+
+        /**
+         * @return the checksum of every value read so far
+         */
+        long checksum() {
+            crc.update(buffer.array(), checksummed, buffer.position() - checksummed);
+            checksummed = buffer.position();
+            return crc.getValue();
+        }
+
+        private void refill() throws IOException {
+            checksum();
+            buffer.compact();
+            checksummed = 0;
+            while (buffer.position() < Long.BYTES) {
+                if (channel.read(buffer) < 0)
+                    throw new IOException("heap snapshot is truncated");
+            }
+            buffer.flip();
+        }
+    }
+}
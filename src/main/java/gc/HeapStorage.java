@@ -0,0 +1,44 @@
+package gc;
+
+/**
+ * The backing store of a {@link Heap}: a fixed-size, word-addressable block of 64-bit words. Implementations decide
+ * where the words physically live (e.g. a Java array, or memory outside of the Java heap). Addresses are 64-bit, but
+ * an implementation may hold fewer than 2^31 words (see {@link ChunkedHeapStorage} for one which need not).
+ */
+public interface HeapStorage {
+
+    /**
+     * @param address the word to read
+     * @return the value of the word at the given address
+     */
+    long get(long address);
+
+    /**
+     * @param address the word to write
+     * @param value the value to write to the word
+     */
+    void put(long address, long value);
+
+    /**
+     * Copy a run of words out of the storage.
+     * @param address the first word to read
+     * @param destination the buffer to copy the words into
+     * @param offset the position in the destination buffer to copy the first word to
+     * @param length the number of words to copy
+     */
+    void get(long address, long[] destination, int offset, int length);
+
+    /**
+     * Copy a run of words into the storage.
+     * @param address the first word to write
+     * @param source the buffer to copy the words from
+     * @param offset the position in the source buffer of the first word to copy
+     * @param length the number of words to copy
+     */
+    void put(long address, long[] source, int offset, int length);
+
+    /**
+     * @return the number of words in the storage
+     */
+    long size();
+}
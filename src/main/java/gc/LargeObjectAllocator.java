@@ -0,0 +1,270 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An allocator which keeps large objects apart from small ones. The top of the heap is set aside as a large object
+ * space, divided into pages: an object of at least the threshold size is given a run of whole pages there, starting on
+ * a page boundary, and every smaller object is placed below it by a {@link BasicAllocator}. Large objects therefore
+ * never break up the small objects' free regions, and finding space for one only means finding a run of clear bits in
+ * the page map.
+ * <p>
+ * The large object space is reserved in the {@link BasicAllocator} as a single object of its own, which is not counted
+ * as an allocated object.
+ */
+public class LargeObjectAllocator implements HeapAllocator {
+
+    public static final int PAGE_SIZE_DEFAULT = 1 << 9;
+
+    private final BasicAllocator smallObjects;
+
+    private final Space space;
+
+    private final int pageSize;
+
+    private final int threshold;
+
+    // the pages of the large object space which are in use, and those which start an object
+    private final BitSet usedPages = new BitSet();
+    private final BitSet objectStarts = new BitSet();
+
+    private int usedPageCount;
+
+    private int largeObjects;
+
+    /**
+     * @param smallObjects the allocator to place small objects with, which must not have allocated anything yet; the
+     *                     large object space is taken from the top of its heap
+     * @param largeSpaceSize the size of the large object space in words, which is rounded down to a whole number of
+     *                       pages
+     * @param pageSize the size of each page of the large object space, which must be a power of two
+     * @param threshold the size of the smallest object to place in the large object space
+     * @throws AllocationException if the large object space does not fit in the heap
+     */
+    public LargeObjectAllocator(BasicAllocator smallObjects, int largeSpaceSize, int pageSize, int threshold) throws AllocationException {
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("illegal page size: " + pageSize + "; size must be a power of two");
+        if (threshold <= 0)
+            throw new IllegalArgumentException("illegal large object threshold: " + threshold + "; threshold must be > 0");
+        if (smallObjects.allocatedObjects() != 0)
+            throw new IllegalArgumentException("the small object allocator must not have allocated anything yet");
+        int pages = largeSpaceSize / pageSize;
+        if (pages <= 0 || pages * pageSize > smallObjects.heapSize())
+            throw new AllocationException("cannot fit a large object space of " + largeSpaceSize + " words with pages of " + pageSize + " words in a heap of " + smallObjects.heapSize() + " words");
+        this.smallObjects = smallObjects;
+        this.pageSize = pageSize;
+        this.threshold = threshold;
+        space = new Space(pages * pageSize);
+        space.setAddress((smallObjects.heapSize() - space.size()) & -pageSize);
+        reserveSpace(new ArrayList<>());
+    }
+
+    /**
+     * @param storage the storage to hold the words of the heap in
+     * @param largeSpaceSize the size of the large object space in words
+     * @throws AllocationException if the large object space does not fit in the heap
+     */
+    public LargeObjectAllocator(HeapStorage storage, int largeSpaceSize) throws AllocationException {
+        this(new BasicAllocator(storage), largeSpaceSize, PAGE_SIZE_DEFAULT, PAGE_SIZE_DEFAULT);
+    }
+
+    @Override
+    public void allocate(MemoryManagedObject object) throws AllocationException {
+        if (object.size() < threshold) {
+            smallObjects.allocate(object);
+            return;
+        }
+        int pages = pagesFor(object.size());
+        synchronized (usedPages) {
+            int first = findPages(pages);
+            if (first < 0)
+                throw new OutOfMemoryException("no space to allocate object \"" + object.toString() + "\" of size " + object.size() + " to the large object space");
+            usedPages.set(first, first + pages);
+            objectStarts.set(first);
+            usedPageCount += pages;
+            largeObjects++;
+            object.setAddress(space.getAddress() + first * pageSize);
+        }
+        object.setHeap(getHeap());
+        // perform onAllocate behaviour if present
+        try {
+            object.onAllocate();
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+    }
+
+    @Override
+    public void free(MemoryManagedObject object) {
+        if (object.getHeap() != getHeap() || !isLarge(object.getAddress())) {
+            smallObjects.free(object);
+            return;
+        }
+        int first = (int)((object.getAddress() - space.getAddress()) / pageSize);
+        synchronized (usedPages) {
+            // freeing an object twice does nothing the second time
+            if (objectStarts.get(first)) {
+                int pages = pagesFor(object.size());
+                objectStarts.clear(first);
+                usedPages.clear(first, first + pages);
+                usedPageCount -= pages;
+                largeObjects--;
+            }
+        }
+        object.setHeap(null);
+    }
+
+    @Override
+    public void restore(Collection<? extends MemoryManagedObject> liveObjects) throws AllocationException {
+        List<MemoryManagedObject> small = new ArrayList<>();
+        synchronized (usedPages) {
+            usedPages.clear();
+            objectStarts.clear();
+            usedPageCount = 0;
+            largeObjects = 0;
+            for (MemoryManagedObject object : liveObjects) {
+                if (!isLarge(object.getAddress())) {
+                    small.add(object);
+                    continue;
+                }
+                long offset = object.getAddress() - space.getAddress();
+                int first = (int)(offset / pageSize), pages = pagesFor(object.size());
+                int overlap = usedPages.nextSetBit(first);
+                if (offset % pageSize != 0 || first + pages > pageCount() || (overlap >= 0 && overlap < first + pages))
+                    throw new AllocationException("cannot restore object \"" + object.toString() + "\" at address " + object.getAddress() + " with size " + object.size() + " in the large object space");
+                usedPages.set(first, first + pages);
+                objectStarts.set(first);
+                usedPageCount += pages;
+                largeObjects++;
+                object.setHeap(getHeap());
+            }
+        }
+        reserveSpace(small);
+    }
+
+    @Override
+    public Heap getHeap() {
+        return smallObjects.getHeap();
+    }
+
+    @Override
+    public long heapSize() {
+        return smallObjects.heapSize();
+    }
+
+    @Override
+    public long freeSpace() {
+        return smallObjects.freeSpace() + largeSpaceFree();
+    }
+
+    @Override
+    public int allocatedObjects() {
+        // the large object space itself is one of the small allocator's objects
+        return smallObjects.allocatedObjects() - 1 + largeObjects();
+    }
+
+    /**
+     * @return the allocator placing the objects smaller than the threshold
+     */
+    public BasicAllocator getSmallObjectAllocator() {
+        return smallObjects;
+    }
+
+    /**
+     * @return the size of the smallest object placed in the large object space
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the size of the large object space in words
+     */
+    public int largeSpaceSize() {
+        return space.size();
+    }
+
+    /**
+     * @return the number of words in the large object space not in use by any object, including the unused ends of
+     * pages holding objects
+     */
+    public int largeSpaceFree() {
+        synchronized (usedPages) {
+            return (pageCount() - usedPageCount) * pageSize;
+        }
+    }
+
+    /**
+     * @return the number of objects in the large object space
+     */
+    public int largeObjects() {
+        synchronized (usedPages) {
+            return largeObjects;
+        }
+    }
+
+    /**
+     * @param address an address in the heap
+     * @return true if the address is in the large object space
+     */
+    public boolean isLarge(long address) {
+        return address >= space.getAddress() && address < space.getAddress() + space.size();
+    }
+
+    private int pageCount() {
+        return space.size() / pageSize;
+    }
+
+    private int pagesFor(int size) {
+        return (size + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * @return the first page of the lowest run of the given number of free pages, or -1 if there is none
+     */
+    private int findPages(int pages) {
+        int first = usedPages.nextClearBit(0);
+        while (first + pages <= pageCount()) {
+            int used = usedPages.nextSetBit(first);
+            if (used < 0 || used - first >= pages)
+                return first;
+            first = usedPages.nextClearBit(used);
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuild the small allocator's state with the large object space reserved at the top of its heap.
+     */
+    private void reserveSpace(List<MemoryManagedObject> smallObjects) throws AllocationException {
+        smallObjects.add(space);
+        this.smallObjects.restore(smallObjects);
+    }
+
+    /**
+     * The words set aside for the large object space, as one object of the small allocator.
+     */
+    private static class Space extends MemoryManagedObject {
+
+        private final int size;
+
+        Space(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package gc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link HeapStorage} backed by a memory-mapped file, so the words of the heap outlive the process which wrote them.
+ * The file starts with a small header (a magic number, a format version and the heap size in words) followed by the
+ * words themselves. Opening a file which already holds a heap maps it as it is, see {@link #isRestored()}.
+ */
+public class MappedHeapStorage implements HeapStorage, Closeable {
+
+    public static final long MAGIC = 0x4550495348454150L;
+
+    public static final long VERSION = 1;
+
+    private static final int HEADER_WORDS = 4;
+
+    private static final int MAGIC_WORD = 0, VERSION_WORD = 1, SIZE_WORD = 2;
+
+    /**
+     * The largest number of words a single mapping can hold.
+     */
+    public static final int MAX_SIZE = Integer.MAX_VALUE / Long.BYTES - HEADER_WORDS;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer mapping;
+
+    private final LongBuffer header, memory;
+
+    private final boolean restored;
+
+    /**
+     * Open the heap file at the given path, creating it if it does not exist or is empty.
+     * @param path the file to map
+     * @param size the size of the heap in words; if the file already holds a heap it must be of this size
+     * @throws IOException if the file could not be mapped, or it holds something other than a heap of the given size
+     */
+    public MappedHeapStorage(Path path, int size) throws IOException {
+        if (size < 0 || size > MAX_SIZE)
+            throw new IllegalArgumentException("illegal mapped heap size: " + size + "; size must be between 0 and " + MAX_SIZE);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            restored = channel.size() > 0;
+            if (restored)
+                checkHeader(path, channel, size);
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)(HEADER_WORDS + size) * Long.BYTES);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        header = mapping.asLongBuffer();
+        mapping.position(HEADER_WORDS * Long.BYTES);
+        memory = mapping.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        if (!restored) {
+            header.put(VERSION_WORD, VERSION);
+            header.put(SIZE_WORD, size);
+            // the magic number goes in last, a file without it is never treated as a heap
+            header.put(MAGIC_WORD, MAGIC);
+        }
+    }
+
+    /**
+     * Open the heap file at the given path, which must already hold a heap.
+     * @param path the file to map
+     * @throws IOException if the file could not be mapped, or does not hold a heap
+     */
+    public MappedHeapStorage(Path path) throws IOException {
+        this(path, storedSize(path));
+    }
+
+    /**
+     * @return true if the file already held a heap when it was opened, false if a new heap was created
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Write any changes to the words of the heap through to the file.
+     */
+    public void force() {
+        mapping.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    @Override
+    public long get(long address) {
+        return memory.get((int)address);
+    }
+
+    @Override
+    public void put(long address, long value) {
+        memory.put((int)address, value);
+    }
+
+    @Override
+    public void get(long address, long[] destination, int offset, int length) {
+        for (int i = 0; i < length; i++)
+            destination[offset + i] = memory.get((int)address + i);
+    }
+
+    @Override
+    public void put(long address, long[] source, int offset, int length) {
+        for (int i = 0; i < length; i++)
+            memory.put((int)address + i, source[offset + i]);
+    }
+
+    @Override
+    public long size() {
+        return memory.capacity();
+    }
+
+    private static int storedSize(Path path) throws IOException {
+        if (!Files.exists(path))
+            throw new IOException("no heap file at " + path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return (int)readHeader(path, channel).get(SIZE_WORD);
+        }
+    }
+
+    private static void checkHeader(Path path, FileChannel channel, int size) throws IOException {
+        long storedSize = readHeader(path, channel).get(SIZE_WORD);
+        if (storedSize != size)
+            throw new IOException("heap file " + path + " holds a heap of " + storedSize + " words, expected " + size);
+        if (channel.size() < (long)(HEADER_WORDS + size) * Long.BYTES)
+            throw new IOException("heap file " + path + " is truncated");
+    }
+
+    private static LongBuffer readHeader(Path path, FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_WORDS * Long.BYTES)
+            throw new IOException("heap file " + path + " is too small to hold a heap");
+        LongBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_WORDS * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        if (header.get(MAGIC_WORD) != MAGIC)
+            throw new IOException("file " + path + " does not hold a heap");
+        if (header.get(VERSION_WORD) != VERSION)
+            throw new IOException("heap file " + path + " has unsupported version " + header.get(VERSION_WORD));
+        return header;
+    }
+}
@@ -0,0 +1,182 @@
+package gc;
+
+import episcopal.EpiscopalObject;
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+import object.properties.ReferenceProperty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A region of a {@link TreadmillAllocator}'s heap which new objects are placed in by bumping a pointer, without a
+ * {@link GCNode} or a search for free space. When the region is full the objects still reachable from outside it are
+ * promoted into the treadmill and the whole region is reused, so objects which die young are never seen by the
+ * treadmill at all.
+ * <p>
+ * Objects outside the nursery which have had a reference to an object in the nursery stored in them are kept in a
+ * remembered set (see {@link WriteBarrier}), so finding the survivors only means tracing from those objects, rather
+ * than from the whole heap.
+ */
+class Nursery {
+
+    private final Heap heap;
+
+    // the block of the heap allocator's space the nursery lives in
+    private final Region region;
+
+    private long end;
+
+    private long top;
+
+    // every object placed in the nursery since it was last emptied, in order of address
+    private final List<EpiscopalObject> objects = new ArrayList<>();
+
+    private final Set<MemoryManagedObject> remembered = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param heapAllocator the allocator to take the nursery's space from
+     * @param size the size of the nursery in words
+     * @throws AllocationException if the space could not be allocated
+     */
+    Nursery(HeapAllocator heapAllocator, int size) throws AllocationException {
+        heap = heapAllocator.getHeap();
+        region = new Region(size);
+        heapAllocator.allocate(region);
+        top = region.getAddress();
+        end = top + size;
+    }
+
+    /**
+     * @return the size of the nursery in words
+     */
+    int size() {
+        return region.size();
+    }
+
+    Region getRegion() {
+        return region;
+    }
+
+    /**
+     * Place an object at the nursery's top, if there is room for it.
+     * @param object the object to allocate
+     * @return true if the object was allocated, or false if the nursery is too full to hold it
+     * @throws AllocationException if the object's on-allocation behaviour failed
+     */
+    boolean allocate(EpiscopalObject object) throws AllocationException {
+        int size = object.size();
+        if (size > end - top)
+            return false;
+        object.setAddress(top);
+        object.setHeap(heap);
+        object.setGCNode(null);
+        top += size;
+        objects.add(object);
+        try {
+            object.onAllocate();
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the given object currently lives in the nursery
+     */
+    boolean contains(MemoryManagedObject object) {
+        return object.getHeap() == heap && object.getAddress() >= region.getAddress() && object.getAddress() < end;
+    }
+
+    boolean isEmpty() {
+        return objects.isEmpty();
+    }
+
+    /**
+     * @return the objects placed in the nursery since it was last emptied, including any which have since been freed
+     */
+    List<EpiscopalObject> objects() {
+        return objects;
+    }
+
+    /**
+     * Record that an object outside the nursery may refer to objects inside it.
+     */
+    void remember(MemoryManagedObject source) {
+        remembered.add(source);
+    }
+
+    /**
+     * @return the objects in the nursery reachable from the remembered set, in the order they were found
+     */
+    List<EpiscopalObject> survivors() {
+        List<EpiscopalObject> survivors = new ArrayList<>();
+        Set<MemoryManagedObject> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<MemoryManagedObject> work = new ArrayDeque<>();
+        for (MemoryManagedObject source : remembered)
+            // a freed object refers to nothing (and following its references would detach them from the heap)
+            if (source.getHeap() != null)
+                work.push(source);
+        while (!work.isEmpty()) {
+            for (ReferenceProperty reference : work.pop().reachableReferences()) {
+                MemoryManagedObject target = reference.getInstance();
+                if (target != null && contains(target) && seen.add(target)) {
+                    survivors.add((EpiscopalObject)target);
+                    work.push(target);
+                }
+            }
+        }
+        return survivors;
+    }
+
+    /**
+     * Follow the nursery's region after it has been moved by the given number of words, e.g. by compaction, moving the
+     * objects inside it along with it.
+     */
+    void moved(long distance) {
+        long start = region.getAddress() - distance;
+        for (EpiscopalObject object : objects)
+            // objects already promoted out of the nursery (which have a node) have moved on their own, and may have moved
+            // into the nursery's old range
+            if (object.getHeap() == heap && object.getGCNode() == null && object.getAddress() >= start && object.getAddress() < end)
+                object.setAddress(object.getAddress() + distance);
+        top += distance;
+        end += distance;
+    }
+
+    /**
+     * Empty the nursery once its survivors have been promoted: every object still in it is detached from the heap.
+     */
+    void reset() {
+        for (EpiscopalObject object : objects)
+            if (contains(object))
+                object.setHeap(null);
+        objects.clear();
+        remembered.clear();
+        top = region.getAddress();
+    }
+
+    /**
+     * The space taken by a nursery, as one object of the heap allocator.
+     */
+    static class Region extends MemoryManagedObject {
+
+        private final int size;
+
+        Region(int size) {
+            if (size <= 0)
+                throw new IllegalArgumentException("illegal nursery size: " + size + "; size must be > 0");
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package gc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A side table with one bit per heap word, set for each word which is the first word of an allocated object. It lets
+ * an allocator tell whether an object lives at an address, and walk every allocated object in address order, without
+ * holding any Java reference to the objects themselves.
+ * <p>
+ * Bits are set and cleared either by a single thread ({@link ObjectStartBitmap#set}, {@link ObjectStartBitmap#clear})
+ * or, when several threads may touch the same word of the bitmap, atomically ({@link ObjectStartBitmap#setAtomic},
+ * {@link ObjectStartBitmap#clearAtomic}).
+ * <p>
+ * The bitmap is split into chunks, each only allocated once a bit in it is set, so that a large heap of which little
+ * is used costs little to cover.
+ */
+public class ObjectStartBitmap {
+
+    // each chunk holds 2^CHUNK_SHIFT words of the bitmap, i.e. covers 2^(CHUNK_SHIFT + 6) heap words
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final AtomicLongArray[] chunks;
+
+    private final long words;
+
+    private final long size;
+
+    /**
+     * @param size the number of heap words to cover
+     */
+    public ObjectStartBitmap(long size) {
+        this.size = size;
+        words = (size + Long.SIZE - 1) / Long.SIZE;
+        chunks = new AtomicLongArray[(int)((words + CHUNK_MASK) >>> CHUNK_SHIFT)];
+    }
+
+    public boolean get(long address) {
+        return (word(address >>> 6) & (1L << address)) != 0;
+    }
+
+    public void set(long address) {
+        long word = address >>> 6;
+        AtomicLongArray chunk = chunk(word);
+        chunk.lazySet((int)word & CHUNK_MASK, chunk.get((int)word & CHUNK_MASK) | (1L << address));
+    }
+
+    public void clear(long address) {
+        long word = address >>> 6;
+        AtomicLongArray chunk = chunks[(int)(word >>> CHUNK_SHIFT)];
+        if (chunk != null)
+            chunk.lazySet((int)word & CHUNK_MASK, chunk.get((int)word & CHUNK_MASK) & ~(1L << address));
+    }
+
+    public void setAtomic(long address) {
+        long word = address >>> 6;
+        AtomicLongArray chunk = chunk(word);
+        long old;
+        do {
+            old = chunk.get((int)word & CHUNK_MASK);
+        } while (!chunk.compareAndSet((int)word & CHUNK_MASK, old, old | (1L << address)));
+    }
+
+    public void clearAtomic(long address) {
+        long word = address >>> 6;
+        AtomicLongArray chunk = chunks[(int)(word >>> CHUNK_SHIFT)];
+        if (chunk == null)
+            return;
+        long old;
+        do {
+            old = chunk.get((int)word & CHUNK_MASK);
+        } while (!chunk.compareAndSet((int)word & CHUNK_MASK, old, old & ~(1L << address)));
+    }
+
+    public void clearAll() {
+        synchronized (chunks) {
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i] = null;
+        }
+    }
+
+    /**
+     * @param address the address to start looking from
+     * @return the first address at or after the given address which starts an object, or {@link Heap#NULL} if there
+     * is none
+     */
+    public long next(long address) {
+        if (address < 0)
+            address = 0;
+        if (address >= size)
+            return Heap.NULL;
+        long word = address >>> 6;
+        long current = word(word) & (-1L << address);
+        while (current == 0) {
+            if (++word >= words)
+                return Heap.NULL;
+            // skip whole chunks with no bits set
+            if ((word & CHUNK_MASK) == 0) {
+                while (chunks[(int)(word >>> CHUNK_SHIFT)] == null) {
+                    word += CHUNK_MASK + 1;
+                    if (word >= words)
+                        return Heap.NULL;
+                }
+            }
+            current = word(word);
+        }
+        return word * Long.SIZE + Long.numberOfTrailingZeros(current);
+    }
+
+    /**
+     * @return the number of heap words covered
+     */
+    public long size() {
+        return size;
+    }
+
+    private long word(long word) {
+        AtomicLongArray chunk = chunks[(int)(word >>> CHUNK_SHIFT)];
+        return chunk == null ? 0 : chunk.get((int)word & CHUNK_MASK);
+    }
+
+    /**
+     * @return the chunk holding the given word of the bitmap, allocating it if need be
+     */
+    private AtomicLongArray chunk(long word) {
+        int index = (int)(word >>> CHUNK_SHIFT);
+        AtomicLongArray chunk = chunks[index];
+        if (chunk != null)
+            return chunk;
+        synchronized (chunks) {
+            // another thread may have allocated the chunk first
+            if (chunks[index] == null)
+                chunks[index] = new AtomicLongArray((int)Math.min(CHUNK_MASK + 1, words - (word & ~CHUNK_MASK)));
+            return chunks[index];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package gc;
+
+/**
+ * Decides how much marking work a {@link TreadmillAllocator} does on each allocation, so that every allocation pauses
+ * for no longer than a target time while marking still keeps up with the rate at which free space is used.
+ * <p>
+ * Work is counted in heap words scanned. Each allocation of n words is owed enough work to finish marking the used
+ * heap by the time the free space runs out (n * used / free words, and never less than n), but no more than fits in
+ * the maximum pause at the measured cost of scanning a word. Any marking which cannot keep up within that limit is left
+ * for the next flip.
+ * <p>
+ * The allocation rate is not measured in time: the budget is derived from the words each allocation takes relative
+ * to the used and free space, as in Baker's treadmill, where the collector does a fixed amount of work per word
+ * allocated. Whatever the rate in words per second, marking then finishes before the free space is used up, and the
+ * budget does not depend on how long the program spends between allocations. Only the cost of scanning is timed.
+ */
+public class Pacer {
+
+    // a guess at the cost of scanning a word, used until any scanning has been measured
+    private static final double INITIAL_NANOS_PER_WORD = 20;
+
+    // the weight given to each new measurement of the cost of scanning a word
+    private static final double SMOOTHING = 0.125;
+
+    private final long maxPauseNanos;
+
+    private double nanosPerWord = INITIAL_NANOS_PER_WORD;
+
+    /**
+     * @param maxPauseMicros the longest time, in microseconds, that any allocation should spend marking
+     */
+    public Pacer(long maxPauseMicros) {
+        if (maxPauseMicros <= 0)
+            throw new IllegalArgumentException("illegal maximum pause: " + maxPauseMicros + "; pause must be > 0");
+        this.maxPauseNanos = maxPauseMicros * 1000;
+    }
+
+    /**
+     * @param allocatedWords the size of the object being allocated
+     * @param usedWords the number of words in use in the heap
+     * @param freeWords the number of free words in the heap
+     * @return the number of words to scan during this allocation
+     */
+    public int budget(int allocatedWords, long usedWords, long freeWords) {
+        long owed = Math.max(allocatedWords, (long)((double)allocatedWords * usedWords / Math.max(1, freeWords)));
+        long affordable = Math.max(1, (long)(maxPauseNanos / nanosPerWord));
+        return (int)Math.min(Integer.MAX_VALUE, Math.min(owed, affordable));
+    }
+
+    /**
+     * Record how long some scanning took, to refine the cost of scanning a word.
+     * @param wordsScanned the number of words scanned
+     * @param nanos the time taken, in nanoseconds
+     */
+    public void record(int wordsScanned, long nanos) {
+        if (wordsScanned <= 0)
+            return;
+        nanosPerWord += SMOOTHING * ((double)nanos / wordsScanned - nanosPerWord);
+    }
+
+    public long getMaxPauseMicros() {
+        return maxPauseNanos / 1000;
+    }
+
+    /**
+     * @return the current estimate of the time taken to scan one word, in nanoseconds
+     */
+    public double getNanosPerWord() {
+        return nanosPerWord;
+    }
+}
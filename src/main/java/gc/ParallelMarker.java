@@ -0,0 +1,109 @@
+package gc;
+
+import episcopal.EpiscopalObject;
+import object.management.PropertyAccessException;
+import object.properties.ReferenceProperty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Traces everything reachable from a set of grey nodes using a {@link ForkJoinPool}. A node is claimed by atomically
+ * changing its colour from ecru to black ({@link GCNode#compareAndSetType}), so each node is traced by exactly one
+ * task. The nodes are not moved within the treadmill here: the claimed nodes are returned, and it is up to the
+ * {@link TreadmillAllocator} to relink them into its black segment once tracing has finished.
+ */
+class ParallelMarker {
+
+    // tasks keep at most this many nodes to themselves, and fork off the rest for other workers to steal
+    private static final int SPLIT_THRESHOLD = 256;
+
+    private final ForkJoinPool pool;
+
+    ParallelMarker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param greyNodes the nodes to trace from, which are left as they are
+     * @return every ecru node reachable from the grey nodes, each of which has been coloured black in the heap
+     * @throws PropertyAccessException if there was a problem reading any node or object
+     */
+    List<GCNode<? super EpiscopalObject>> mark(Collection<GCNode<? super EpiscopalObject>> greyNodes) throws PropertyAccessException {
+        try {
+            return pool.invoke(new MarkTask(new ArrayDeque<>(greyNodes)));
+        } catch (MarkingException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class MarkTask extends RecursiveTask<List<GCNode<? super EpiscopalObject>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Deque<GCNode<? super EpiscopalObject>> work;
+
+        MarkTask(Deque<GCNode<? super EpiscopalObject>> work) {
+            this.work = work;
+        }
+
+        @Override
+        protected List<GCNode<? super EpiscopalObject>> compute() {
+            List<GCNode<? super EpiscopalObject>> claimed = new ArrayList<>();
+            List<MarkTask> forked = new ArrayList<>();
+            try {
+                while (!work.isEmpty()) {
+                    if (work.size() > 2 * SPLIT_THRESHOLD) {
+                        Deque<GCNode<? super EpiscopalObject>> split = new ArrayDeque<>();
+                        while (work.size() > SPLIT_THRESHOLD)
+                            split.add(work.pollLast());
+                        MarkTask task = new MarkTask(split);
+                        task.fork();
+                        forked.add(task);
+                    }
+                    GCNode<? super EpiscopalObject> node = work.pop();
+                    EpiscopalObject object = node.data.getInstance();
+                    if (object == null)
+                        continue;
+                    for (ReferenceProperty<?> reference : object.reachableReferences()) {
+                        EpiscopalObject instance = (EpiscopalObject)reference.getInstance();
+                        if (instance == null || instance.getGCNode() == null)
+                            continue;
+                        GCNode<? super EpiscopalObject> referenceNode = instance.getGCNode();
+                        if (referenceNode.compareAndSetType(NodeType.ECRU, NodeType.BLACK)) {
+                            claimed.add(referenceNode);
+                            work.push(referenceNode);
+                        }
+                    }
+                }
+            } catch (PropertyAccessException e) {
+                throw new MarkingException(e);
+            }
+            for (MarkTask task : forked)
+                claimed.addAll(task.join());
+            return claimed;
+        }
+    }
+
+    /**
+     * Carries a checked exception out of a fork/join task.
+     */
+    private static class MarkingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        MarkingException(PropertyAccessException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized PropertyAccessException getCause() {
+            return (PropertyAccessException)super.getCause();
+        }
+    }
+}
@@ -1,13 +1,24 @@
 package gc;
 
 import episcopal.EpiscopalObject;
+import episcopal.EpiscopalType;
+import object.TagNotFoundException;
 import object.management.MemoryManagedObject;
 import object.management.PropertyAccessException;
 import object.properties.ReferenceProperty;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static gc.NodeType.*;
 
@@ -23,11 +34,63 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
     private final int scanFrequency;
     private int currentScan = 0;
 
-    private Set<GCNode<? super EpiscopalObject>> nodes;
+    // decides how much to scan on each allocation instead of the scan frequency, if set
+    private Pacer pacer;
+
+    /**
+     * The default fraction of the current number of nodes to add as white nodes when the treadmill runs out of them.
+     */
+    public static final double GROWTH_FACTOR_DEFAULT = 0.5;
+
+    private double growthFactor = GROWTH_FACTOR_DEFAULT;
+
+    /**
+     * The default limit on white nodes kept after a flip, as a multiple of the non-white nodes.
+     */
+    public static final double MAX_WHITE_RATIO_DEFAULT = 2;
+
+    private double maxWhiteRatio = MAX_WHITE_RATIO_DEFAULT;
+
+    /**
+     * The default fragmentation of the free space above which the heap is compacted; by default it never is.
+     */
+    public static final double COMPACTION_THRESHOLD_DEFAULT = Double.POSITIVE_INFINITY;
+
+    private double compactionThreshold = COMPACTION_THRESHOLD_DEFAULT;
+
+    // traces the grey nodes in parallel during a flip, if set
+    private ParallelMarker marker;
+
+    // marks and sweeps between allocations on its own thread, if set
+    private BackgroundCollector collector;
+
+    // stores references through the allocator's lock, installed on the heap only while a collector or nursery needs it
+    private final WriteBarrier writeBarrier = new WriteBarrier() {
+        @Override
+        public <T extends MemoryManagedObject> void storeReference(MemoryManagedObject source, ReferenceProperty<T> reference, T target) throws PropertyAccessException {
+            TreadmillAllocator.this.storeReference(source, reference, target);
+        }
+    };
+
+    // holds new objects until they survive a nursery collection, if set
+    private Nursery nursery;
+
+    // the number of nodes of each colour, indexed by ordinal
+    private final int[] colourCounts = new int[NodeType.values().length];
+
+    private int nodeCount;
+
+    // running totals since the allocator was created, for statistics
+    private long allocations, frees, collected, flips, nurseryCollections, promoted;
+
+    // the number of allocations at the last flip, so the background collector can tell whether to flip again
+    private long allocationsAtFlip;
 
     private Set<EpiscopalObject> roots;
 
-    private BasicAllocator heapAllocator;
+    private HeapAllocator heapAllocator;
+
+    private TreadmillHeader header;
 
     private DebugMode debugMode;
 
@@ -38,18 +101,31 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
     private GCNode<? super EpiscopalObject> top = null, scan = null, free = null, bottom = null;
 
     /**
-     * @param heapSize the size of the heap to use
+     * @param storage the storage to hold the words of the heap in (e.g. {@link ArrayHeapStorage},
+     *                {@link DirectHeapStorage} or {@link ChunkedHeapStorage})
      * @param scanFrequency the number of allocations that must pass before a scan is forced
      * @param roots the set of root objects to discern from others
      * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
      * @throws AllocationException if there was a problem allocating any of the root objects
      */
-    public TreadmillAllocator(int heapSize, int scanFrequency, Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
-        if (scanFrequency <= 0)
-            throw new IllegalArgumentException("illegal scan frequency: " + scanFrequency + "; frequency must be > 0");
-        this.scanFrequency = scanFrequency;
+    public TreadmillAllocator(HeapStorage storage, int scanFrequency, Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
+        this(new BasicAllocator(storage), scanFrequency, roots, debugMode);
+    }
+
+    /**
+     * @param heapAllocator the allocator to place objects and nodes into its heap with (e.g. {@link BasicAllocator} or
+     *                      {@link BuddyAllocator}); it must not have allocated anything yet
+     * @param scanFrequency the number of allocations that must pass before a scan is forced
+     * @param roots the set of root objects to discern from others
+     * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
+     * @throws AllocationException if there was a problem allocating any of the root objects
+     */
+    public TreadmillAllocator(HeapAllocator heapAllocator, int scanFrequency, Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
+        this.scanFrequency = checkScanFrequency(scanFrequency);
         this.debugMode = debugMode;
-        heapAllocator = new BasicAllocator(heapSize);
+        this.heapAllocator = heapAllocator;
+        header = new TreadmillHeader();
+        heapAllocator.allocate(header);
         try {
             initTreadmill(roots);
         } catch (PropertyAccessException e) {
@@ -57,6 +133,53 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         }
     }
 
+    /**
+     * Recreate an allocator from storage which already holds a treadmill, e.g. a reopened {@link MappedHeapStorage}.
+     * The nodes, their colours, the root set and the free space are all read back from the heap, and no objects are
+     * allocated. Every object in the treadmill must be one of the {@link EpiscopalType}s. A Java object is still
+     * recreated for every node and live object, so restarting takes time in proportion to the number of live objects
+     * rather than to the size of the heap. The heap must have been written by {@link #persist()}, or be otherwise
+     * {@link #sync()}ed, as references held in Java are not always written through to it.
+     * @param storage the storage holding the heap of a treadmill
+     * @param scanFrequency the number of allocations that must pass before a scan is forced
+     * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
+     * @throws AllocationException if the storage does not hold a treadmill, or any of its objects could not be
+     * recreated
+     */
+    public TreadmillAllocator(HeapStorage storage, int scanFrequency, DebugMode debugMode) throws AllocationException {
+        this(new BasicAllocator(storage), scanFrequency, debugMode);
+    }
+
+    /**
+     * Recreate an allocator from a heap which already holds a treadmill, placed there by the same kind of heap
+     * allocator as the one given. See {@link #TreadmillAllocator(HeapStorage, int, DebugMode)}.
+     * @param heapAllocator an allocator over the heap holding the treadmill; its state is rebuilt from the treadmill
+     * @param scanFrequency the number of allocations that must pass before a scan is forced
+     * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
+     * @throws AllocationException if the heap does not hold a treadmill, or any of its objects could not be recreated
+     */
+    public TreadmillAllocator(HeapAllocator heapAllocator, int scanFrequency, DebugMode debugMode) throws AllocationException {
+        this.scanFrequency = checkScanFrequency(scanFrequency);
+        this.debugMode = debugMode;
+        this.heapAllocator = heapAllocator;
+        try {
+            restoreTreadmill();
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+    }
+
+    /**
+     * @param heapSize the size of the heap to use
+     * @param scanFrequency the number of allocations that must pass before a scan is forced
+     * @param roots the set of root objects to discern from others
+     * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
+     * @throws AllocationException if there was a problem allocating any of the root objects
+     */
+    public TreadmillAllocator(int heapSize, int scanFrequency, Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
+        this(new ArrayHeapStorage(heapSize), scanFrequency, roots, debugMode);
+    }
+
     /**
      * @param heapSize the size of the heap to use
      * @param scanFrequency the number of allocations that must pass before a scan is forced
@@ -68,13 +191,14 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
     }
 
     /**
+     * Use a heap of the default size, whose storage is only allocated as it is used.
      * @param scanFrequency the number of allocations that must pass before a scan is forced
      * @param roots the set of root objects to discern from others
      * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
      * @throws AllocationException if there was a problem allocating any of the root objects
      */
     public TreadmillAllocator(int scanFrequency, Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
-        this(BasicAllocator.HEAP_SIZE_DEFAULT, scanFrequency, roots, debugMode);
+        this(new ChunkedHeapStorage(BasicAllocator.HEAP_SIZE_DEFAULT), scanFrequency, roots, debugMode);
     }
 
     /**
@@ -91,66 +215,357 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      * @throws AllocationException if there was a problem allocating any of the root objects
      */
     public TreadmillAllocator(Collection<EpiscopalObject> roots, DebugMode debugMode) throws AllocationException {
-        this(BasicAllocator.HEAP_SIZE_DEFAULT, 1, roots, debugMode);
+        this(1, roots, debugMode);
+    }
+
+    private static int checkScanFrequency(int scanFrequency) {
+        if (scanFrequency <= 0)
+            throw new IllegalArgumentException("illegal scan frequency: " + scanFrequency + "; frequency must be > 0");
+        return scanFrequency;
     }
 
     public void setDebugMode(DebugMode mode) {
         debugMode = mode;
     }
 
+    /**
+     * Pace marking by work rather than by the scan frequency: each allocation scans as many words as the pacer budgets
+     * for it, in proportion to the words allocated, so that no allocation spends longer than the pacer's maximum pause
+     * marking.
+     * @param pacer the pacer to budget marking work with, or null to scan one node every scan frequency allocations
+     */
+    public void setPacer(Pacer pacer) {
+        this.pacer = pacer;
+    }
+
+    public Pacer getPacer() {
+        return pacer;
+    }
+
+    /**
+     * When a flip leaves no white nodes, the treadmill grows by this fraction of its current number of nodes (and by at
+     * least one node). Growing geometrically means flips become rarer as the live set grows, so allocation takes
+     * amortised constant time; a factor of 0 grows by one node at a time.
+     * @param growthFactor the fraction of the current number of nodes to add, which must not be negative
+     */
+    public void setGrowthFactor(double growthFactor) {
+        if (growthFactor < 0 || Double.isNaN(growthFactor))
+            throw new IllegalArgumentException("illegal growth factor: " + growthFactor + "; factor must be >= 0");
+        this.growthFactor = growthFactor;
+    }
+
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    /**
+     * After each flip, white nodes beyond this multiple of the non-white nodes are freed, returning their space to the
+     * heap, so that the treadmill follows the size of the live set rather than staying at its peak. At least one white
+     * node is always kept.
+     * @param maxWhiteRatio the largest number of white nodes to keep per non-white node, or
+     *                      {@link Double#POSITIVE_INFINITY} to never shrink the treadmill
+     */
+    public void setMaxWhiteRatio(double maxWhiteRatio) {
+        if (maxWhiteRatio < 0 || Double.isNaN(maxWhiteRatio))
+            throw new IllegalArgumentException("illegal white node ratio: " + maxWhiteRatio + "; ratio must be >= 0");
+        this.maxWhiteRatio = maxWhiteRatio;
+    }
+
+    public double getMaxWhiteRatio() {
+        return maxWhiteRatio;
+    }
+
+    /**
+     * Compact the heap after a flip whenever its free space is more fragmented than the given threshold (see
+     * {@link BasicAllocator#fragmentation}). While compaction is enabled, an allocation which fails for want of a large
+     * enough free region, although there are enough free words in total, also compacts the heap and tries again.
+     * @param compactionThreshold the fragmentation from 0 to 1 above which to compact, or
+     *                            {@link Double#POSITIVE_INFINITY} to never compact
+     * @throws IllegalStateException if compaction is enabled but the heap allocator is not a {@link BasicAllocator}
+     */
+    public synchronized void setCompactionThreshold(double compactionThreshold) {
+        if (compactionThreshold < 0 || Double.isNaN(compactionThreshold))
+            throw new IllegalArgumentException("illegal compaction threshold: " + compactionThreshold + "; threshold must be >= 0");
+        if (compactionThreshold != Double.POSITIVE_INFINITY)
+            compactingAllocator();
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Mark in parallel when a flip drains the grey nodes: tracing is spread over the given pool's threads, and only
+     * relinking the marked nodes into the treadmill afterwards is done by the allocating thread.
+     * @param pool the pool to trace with, or null to trace on the allocating thread alone
+     */
+    public void setMarkingPool(ForkJoinPool pool) {
+        marker = pool == null ? null : new ParallelMarker(pool);
+    }
+
+    /**
+     * Place new objects in a nursery of the given size, taken from the heap, rather than straight into the treadmill.
+     * Allocating in the nursery only bumps a pointer; when it is full, the objects in it still referenced from outside
+     * it are promoted into the treadmill, and the rest are dropped without ever having had a node. Objects larger than
+     * the nursery are still allocated into the treadmill.
+     * <p>
+     * As with the treadmill itself, an object is only kept alive by references from other objects on the heap, so a new
+     * object should be referenced from the heap before the next allocation.
+     * @param size the size of the nursery in words, or 0 to stop using a nursery (promoting any survivors first)
+     * @throws AllocationException if the nursery could not be allocated, or its survivors could not be promoted
+     */
+    public synchronized void setNurserySize(int size) throws AllocationException {
+        if (size < 0)
+            throw new IllegalArgumentException("illegal nursery size: " + size + "; size must be >= 0");
+        if (nursery != null) {
+            collectNursery();
+            heapAllocator.free(nursery.getRegion());
+            nursery = null;
+        }
+        if (size > 0)
+            nursery = new Nursery(heapAllocator, size);
+        updateWriteBarrier();
+    }
+
+    /**
+     * @return the size of the nursery in words, or 0 if there is none
+     */
+    public synchronized int getNurserySize() {
+        return nursery == null ? 0 : nursery.size();
+    }
+
+    /**
+     * Start a daemon thread which marks and sweeps while the program runs, taking the allocator's lock for one bounded
+     * step at a time. While it runs, allocations do no marking of their own (they still flip if the treadmill has no
+     * white nodes left), and references stored into objects on the heap grey their ecru targets, so that nothing the
+     * collector has already scanned can come to hold the only reference to an object it will sweep.
+     * @param periodMillis how long the collector waits before looking for more work, once there is none
+     * @param nodesPerStep the most grey nodes the collector scans while holding the lock
+     * @throws IllegalStateException if a collector is already running
+     */
+    public synchronized void startCollector(long periodMillis, int nodesPerStep) {
+        if (collector != null && collector.isRunning())
+            throw new IllegalStateException("a background collector is already running");
+        collector = new BackgroundCollector(this, periodMillis, nodesPerStep);
+        updateWriteBarrier();
+        collector.start();
+    }
+
+    /**
+     * Stop the background collector, if there is one, and wait for its current step to finish.
+     * @throws AllocationException if the collector had stopped early because it failed to collect
+     */
+    public void stopCollector() throws AllocationException {
+        BackgroundCollector stopping;
+        // the collector needs the lock to finish its step, so don't hold it while waiting
+        synchronized (this) {
+            stopping = collector;
+            collector = null;
+        }
+        if (stopping != null) {
+            try {
+                stopping.stop();
+            } finally {
+                synchronized (this) {
+                    updateWriteBarrier();
+                }
+            }
+        }
+    }
+
+    /**
+     * Install the write barrier on the heap while a background collector or nursery needs to be told of reference
+     * stores, and remove it otherwise, so that stores made without either take no lock.
+     */
+    private void updateWriteBarrier() {
+        heapAllocator.getHeap().setWriteBarrier(collector != null || nursery != null ? writeBarrier : null);
+    }
+
+    /**
+     * @return true if a background collector is marking and sweeping for this allocator
+     */
+    public synchronized boolean isCollectorRunning() {
+        return collector != null && collector.isRunning();
+    }
+
+    /**
+     * @return the distinguished root objects, in order of their address in the heap (for a new allocator this is the
+     * order in which they were given)
+     */
+    public List<EpiscopalObject> getRoots() {
+        List<EpiscopalObject> sorted = new ArrayList<>(roots);
+        sorted.sort(Comparator.comparingLong(EpiscopalObject::getAddress));
+        return sorted;
+    }
+
     /**
      * @return the current space (in heap words) marked as allocated in the heap
      */
-    public int usedHeapSpace() {
+    public synchronized long usedHeapSpace() {
         return heapAllocator.heapSize() - heapAllocator.freeSpace();
     }
 
     /**
      * @return the current size of the heap (allocated and non-allocated regions combined)
      */
-    public int currentHeapSize() {
+    public long currentHeapSize() {
         return heapAllocator.heapSize();
     }
 
     /**
      * @return the number of non-white (used) GC nodes in the treadmill
      */
-    public int countNonWhiteNodes() {
-        int count = 0;
-        for (GCNode node : nodes) {
-            try {
-                if (node.type() != WHITE)
-                    count++;
-            } catch (PropertyAccessException e) {
-                // do nothing
+    public synchronized int countNonWhiteNodes() {
+        return nodeCount - colourCounts[WHITE.ordinal()];
+    }
+
+    /**
+     * @return the number of white (free) GC nodes in the treadmill
+     */
+    public synchronized int countWhiteNodes() {
+        return colourCounts[WHITE.ordinal()];
+    }
+
+    /**
+     * @return a snapshot of the allocator's node counts, space and activity, which takes constant time to make
+     */
+    public synchronized TreadmillStats getStats() {
+        return new TreadmillStats(colourCounts, heapAllocator.heapSize(), heapAllocator.freeSpace(), allocations, frees, collected, flips, nurseryCollections, promoted);
+    }
+
+    /**
+     * Write the address of every referenced object through to the heap. A {@link ReferenceProperty} may hold an
+     * instance whose address has changed since the reference was set (e.g. it was set before the instance was
+     * allocated), so this should be called before the heap is persisted; afterwards the heap alone describes the object
+     * graph.
+     * @throws AllocationException if there was a problem accessing the references of any object
+     */
+    public synchronized void sync() throws AllocationException {
+        // objects in the nursery aren't part of the treadmill, so only promoted objects are described by the heap
+        if (nursery != null)
+            collectNursery();
+        try {
+            GCNode<? super EpiscopalObject> front = firstAvailableFront();
+            GCNode<? super EpiscopalObject> node = front;
+            while (node != null) {
+                EpiscopalObject object = node.data.getInstance();
+                if (object != null) {
+                    node.data.getLong();
+                    for (ReferenceProperty reference : object.reachableReferences())
+                        reference.getLong();
+                }
+                node = node.next.getInstance();
+                if (node == front)
+                    break;
             }
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
         }
-        return count;
     }
 
     /**
-     * @return the number of white (free) GC nodes in the treadmill
+     * Slide every node and object down to the bottom of the heap, so that its free space becomes a single region, and
+     * rewrite every reference to them in the heap.
+     * @throws AllocationException if there was a problem moving any object or rewriting its references
+     * @throws IllegalStateException if the heap allocator is not a {@link BasicAllocator}
      */
-    public int countWhiteNodes() {
-        int count = 0;
-        for (GCNode node : nodes) {
-            try {
-                if (node.type() == WHITE)
-                    count++;
-            } catch (PropertyAccessException e) {
-                // do nothing
+    public synchronized void compact() throws AllocationException {
+        BasicAllocator basicAllocator = compactingAllocator();
+        printTreadmill("before compaction", DebugMode.VERBOSE);
+        try {
+            List<MemoryManagedObject> live = treadmillObjects();
+            long nurseryAddress = Heap.NULL;
+            if (nursery != null) {
+                nurseryAddress = nursery.getRegion().getAddress();
+                live.add(nursery.getRegion());
             }
+            basicAllocator.compact(live);
+            if (nursery != null)
+                nursery.moved(nursery.getRegion().getAddress() - nurseryAddress);
+            // references take the address of their instance when they are read, so reading them rewrites the heap
+            for (MemoryManagedObject object : live)
+                for (ReferenceProperty reference : object.reachableReferences())
+                    reference.getLong();
+            if (nursery != null)
+                for (EpiscopalObject object : nursery.objects())
+                    if (object.getHeap() != null)
+                        for (ReferenceProperty reference : object.reachableReferences())
+                            reference.getLong();
+            for (NodeType colour : NodeType.values())
+                setFront(colour, getFront(colour));
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
         }
-        return count;
+        printTreadmill("after compaction", DebugMode.NORMAL);
+    }
+
+    /**
+     * {@link #sync()} the heap and, if it is backed by a {@link MappedHeapStorage}, force its words out to the file, so
+     * that the file can be reopened by {@link #TreadmillAllocator(HeapStorage, int, DebugMode)}. This must be called
+     * before the storage is closed; the references in a heap which has not been synced may be stale.
+     * @throws AllocationException if there was a problem accessing the references of any object
+     */
+    public synchronized void persist() throws AllocationException {
+        sync();
+        HeapStorage storage = heapAllocator.getHeap().getStorage();
+        if (storage instanceof MappedHeapStorage)
+            ((MappedHeapStorage)storage).force();
+    }
+
+    /**
+     * Write a snapshot of the heap to a channel: every word held by the treadmill, along with its fronts, roots and free
+     * regions (see {@link HeapSnapshot}). The heap is {@link #sync()}ed first, so the nursery is collected. The channel
+     * is not closed.
+     * @param channel the channel to write the snapshot to
+     * @throws IOException if the snapshot could not be written
+     * @throws AllocationException if there was a problem reading the treadmill
+     */
+    public synchronized void writeSnapshot(WritableByteChannel channel) throws IOException, AllocationException {
+        sync();
+        try {
+            HeapSnapshot.write(heapAllocator.getHeap(), header, treadmillObjects(), roots, channel);
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+    }
+
+    /**
+     * Recreate an allocator from a snapshot written by {@link #writeSnapshot(WritableByteChannel)}, in a heap of the
+     * same size whose storage is only allocated as it is used. As with
+     * {@link #TreadmillAllocator(HeapStorage, int, DebugMode)}, no objects are allocated, and every object in the
+     * treadmill must be one of the {@link EpiscopalType}s.
+     * @param channel the channel to read the snapshot from
+     * @param scanFrequency the number of allocations that must pass before a scan is forced
+     * @param debugMode the debug mode to use (higher debug modes equate to more verbose output)
+     * @return the recreated allocator
+     * @throws IOException if the snapshot could not be read, or is corrupt
+     * @throws AllocationException if the snapshot's objects could not be recreated
+     */
+    public static TreadmillAllocator readSnapshot(ReadableByteChannel channel, int scanFrequency, DebugMode debugMode) throws IOException, AllocationException {
+        HeapSnapshot snapshot = HeapSnapshot.read(channel, ChunkedHeapStorage::new);
+        return new TreadmillAllocator(snapshot.getStorage(), scanFrequency, debugMode);
     }
 
     //******** ALLOCATOR IMPLEMENTATION ********//
 
     @Override
-    public void allocate(EpiscopalObject object) throws AllocationException {
+    public synchronized void allocate(EpiscopalObject object) throws AllocationException {
         printTreadmill("before allocation", DebugMode.VERBOSE);
-        // scan if necessary
-        if (++currentScan >= scanFrequency) {
+        if (nursery != null && object.size() <= nursery.size()) {
+            if (!nursery.allocate(object)) {
+                collectNursery();
+                nursery.allocate(object);
+            }
+            allocations++;
+            return;
+        }
+        // scan if necessary, unless the background collector is doing it
+        if (isCollectorRunning()) {
+            currentScan = 0;
+        } else if (pacer != null) {
+            pacedScan(object.size());
+        } else if (++currentScan >= scanFrequency) {
             if (anyOfType(GREY))
                 scan(getFront(GREY));
             currentScan = 0;
@@ -166,14 +581,50 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
             throw new AllocationException(e);
         }
         allocateObjectIntoFree(object);
+        allocations++;
         printTreadmill("after allocation of " + object.toString(), DebugMode.BASIC);
     }
 
     @Override
-    public void free(EpiscopalObject object) throws AllocationException {
+    public synchronized void free(EpiscopalObject object) throws AllocationException {
+        printTreadmill("before freeing object " + String.valueOf(object), DebugMode.NORMAL);
+        release(object);
+        // flip to compact any empty nodes
+        flip();
+        printTreadmill("after freeing object " + object.toString(), DebugMode.BASIC);
+    }
+
+    /**
+     * Free every given object, then flip once, rather than once per object as {@link TreadmillAllocator#free} does.
+     * @param objects the objects to free
+     * @throws AllocationException if any of the objects could not be freed; those before it in the collection are still
+     * freed
+     */
+    public synchronized void freeAll(Collection<? extends EpiscopalObject> objects) throws AllocationException {
+        printTreadmill("before freeing " + objects.size() + " objects", DebugMode.NORMAL);
+        try {
+            for (EpiscopalObject object : objects)
+                release(object);
+        } finally {
+            flip();
+        }
+        printTreadmill("after freeing " + objects.size() + " objects", DebugMode.BASIC);
+    }
+
+    /**
+     * Free an object's space and make its node white, without flipping.
+     * @param object the object to free
+     * @throws AllocationException if the object is not allocated on this heap, is a root, or could not be freed
+     */
+    private void release(EpiscopalObject object) throws AllocationException {
         if (object == null)
             throw new AllocationException("cannot free null object");
-        printTreadmill("before freeing object " + object.toString(), DebugMode.NORMAL);
+        if (nursery != null && nursery.contains(object)) {
+            // the nursery's space is only reused once it is emptied, so freeing just detaches the object
+            object.setHeap(null);
+            frees++;
+            return;
+        }
         if (object.getGCNode() == null || object.getGCNode().getAddress() == Heap.NULL)
             throw new AllocationException("cannot free object " + object.toString() + " because it is not allocated on this heap");
         if (roots.contains(object))
@@ -181,30 +632,170 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         try {
             GCNode<? super EpiscopalObject> node = object.getGCNode();
             // disassociate the object with it's GC node
-            node.data.setInstance(null);
+            node.data.store(null);
             object.setGCNode(null);
             // free the object's allocated space (disassociating it from the heap)
             heapAllocator.free(object);
+            frees++;
             // make the node white, for later use
             make(node, WHITE);
         } catch (PropertyAccessException e) {
             throw new AllocationException("failed to disassociate the object " + object.toString() + " with the allocator's heap");
         }
-        // flip to compact any empty nodes
-        flip();
-        printTreadmill("after freeing object " + object.toString(), DebugMode.BASIC);
     }
 
     //******** TREADMILL HELPERS ********//
 
     /**
-     * Scan a grey node, if any exist.
-     * @throws AllocationException
+     * One step of the background collector: scan up to the given number of grey nodes, and flip once marking is
+     * finished if anything has been allocated since the last flip. A new object is black until the flip after its
+     * allocation, and is only swept by the flip after that, so flipping at most once per allocation keeps the same rule
+     * as synchronous collection: an object is safe as long as it is linked in before the next allocation. Objects which
+     * become unreachable are therefore only swept once the program allocates again.
+     * @param maxNodes the most grey nodes to scan
+     * @return true if any work was done
+     * @throws AllocationException if there was a problem scanning or flipping
+     */
+    synchronized boolean collectStep(int maxNodes) throws AllocationException {
+        int scanned = 0;
+        while (scanned < maxNodes && anyOfType(GREY) && scan(getFront(GREY)) != 0)
+            scanned++;
+        if (scanned > 0 || anyOfType(GREY))
+            return scanned > 0;
+        if (allocations == allocationsAtFlip)
+            return false;
+        flip();
+        return true;
+    }
+
+    /**
+     * Promote the objects in the nursery which are still referenced from outside it into the treadmill, and empty it.
+     * @throws AllocationException if there was a problem promoting any of the objects
+     */
+    private void collectNursery() throws AllocationException {
+        printTreadmill("before collecting the nursery", DebugMode.VERBOSE);
+        try {
+            for (EpiscopalObject object : nursery.survivors())
+                promote(object);
+        } catch (PropertyAccessException e) {
+            throw new AllocationException(e);
+        }
+        nursery.reset();
+        nurseryCollections++;
+        printTreadmill("after collecting the nursery", DebugMode.NORMAL);
+    }
+
+    /**
+     * Copy an object out of the nursery into newly allocated treadmill space, giving it a node.
+     * @param object the object to promote
+     * @throws AllocationException if there was no space for the object
+     * @throws PropertyAccessException if there was a problem shading the object's references
+     */
+    private void promote(EpiscopalObject object) throws AllocationException, PropertyAccessException {
+        Heap heap = heapAllocator.getHeap();
+        long[] words = heap.get(object.getAddress(), object.size());
+        if (isHeapFull()) {
+            flip();
+            if (isHeapFull())
+                throw new OutOfMemoryException("heap is full");
+        }
+        allocateObjectIntoFree(object);
+        heap.put(object.getAddress(), words);
+        promoted++;
+        // the object is black, and copying its references went past the write barrier, so shade them as a scan would
+        for (ReferenceProperty reference : object.reachableReferences()) {
+            MemoryManagedObject target = reference.getInstance();
+            if (target != null)
+                shade(target);
+        }
+    }
+
+    /**
+     * Objects in the nursery aren't scanned, so before a flip ends marking, grey anything in the treadmill they refer
+     * to, as if they were all roots.
+     * @throws PropertyAccessException if there was a problem shading any of the references
+     */
+    private void shadeNurseryReferents() throws PropertyAccessException {
+        if (nursery == null)
+            return;
+        for (EpiscopalObject object : nursery.objects()) {
+            // a freed object refers to nothing (and following its references would detach them from the heap)
+            if (object.getHeap() == null)
+                continue;
+            for (ReferenceProperty reference : object.reachableReferences()) {
+                MemoryManagedObject target = reference.getInstance();
+                if (target != null)
+                    shade(target);
+            }
+        }
+    }
+
+    /**
+     * The write barrier: store the reference while holding the allocator's lock, so that no collection step can run
+     * between the store and its recording, then remember objects outside the nursery which refer to objects inside it,
+     * and shade the target.
+     * @param source the object the reference is stored into
+     * @param reference the reference to store into
+     * @param target the object referenced, or null
+     * @throws PropertyAccessException if there was a problem storing the reference or shading the target
+     */
+    private synchronized <T extends MemoryManagedObject> void storeReference(MemoryManagedObject source, ReferenceProperty<T> reference, T target) throws PropertyAccessException {
+        reference.store(target);
+        if (target == null)
+            return;
+        if (nursery != null && nursery.contains(target) && !nursery.contains(source))
+            nursery.remember(source);
+        shade(target);
+    }
+
+    /**
+     * Grey the node of an object which has just been stored into a reference, if it is ecru.
+     * Storing a reference in an object which has already been scanned would otherwise leave the target to be swept.
+     * @param target the object referenced
+     * @throws PropertyAccessException if there was a problem accessing or relinking the target's node
+     */
+    private void shade(MemoryManagedObject target) throws PropertyAccessException {
+        if (!(target instanceof EpiscopalObject))
+            return;
+        GCNode<? super EpiscopalObject> node = ((EpiscopalObject)target).getGCNode();
+        // the node may belong to another object by now, if the target has already been freed
+        if (node == null || node.getHeap() == null || node.data.getInstance() != target)
+            return;
+        if (node.type() == ECRU)
+            make(node, GREY);
+    }
+
+    /**
+     * Scan grey nodes until the pacer's budget for an allocation is spent or there are no grey nodes left.
+     * @param allocatedWords the size of the object being allocated
+     * @throws AllocationException if there was a problem scanning any node
      */
-    private void scan(GCNode<? super EpiscopalObject> node) throws AllocationException {
+    private void pacedScan(int allocatedWords) throws AllocationException {
+        long used = usedHeapSpace();
+        int budget = pacer.budget(allocatedWords, used, heapAllocator.heapSize() - used);
+        int scanned = 0;
+        long start = System.nanoTime();
+        while (scanned < budget && anyOfType(GREY)) {
+            int work = scan(getFront(GREY));
+            if (work == 0)
+                break;
+            scanned += work;
+        }
+        pacer.record(scanned, System.nanoTime() - start);
+    }
+
+    /**
+     * Scan a single grey node: every ecru node its object references is made grey, and the node itself is made black.
+     * The grey segment of the treadmill is the work list of nodes still to scan, so scanning never recurses, and the
+     * depth of the object graph does not matter.
+     * @param node the node to scan, which is ignored unless it is grey
+     * @return the number of words scanned (the size of the node's object), or 0 if the node was not grey
+     * @throws AllocationException if there was a problem accessing the properties of the node or its object
+     */
+    private int scan(GCNode<? super EpiscopalObject> node) throws AllocationException {
         try {
             if (node.type() != GREY)
-                return;
+                return 0;
             printTreadmill("starting scan for " + treadmillNodeRepresentation(node), DebugMode.VERBOSE);
             // for each reachable object in the node to scan
             for (ReferenceProperty reference : node.data.getInstance().reachableReferences()) {
@@ -213,20 +804,45 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
                     continue;
                 // this is a node which scan's value points to
                 GCNode<? super EpiscopalObject> referenceNode = ((EpiscopalObject)reference.getInstance()).getGCNode();
-                // if the node of the pointed-to value is an ECRU node, make it grey
-                if (referenceNode.type() == NodeType.ECRU) {
+                // if the node of the pointed-to value is an ECRU node, make it grey, to be scanned later
+                if (referenceNode.type() == NodeType.ECRU)
                     make(referenceNode, GREY);
-                    // scan the reference node's references as well
-                    scan(referenceNode);
-                }
             }
             make(node, BLACK);
             printTreadmill("finished scan for " + treadmillNodeRepresentation(node), DebugMode.NORMAL);
+            return node.data.getInstance().size();
         } catch (PropertyAccessException e) {
             throw new AllocationException(e);
         }
     }
 
+    /**
+     * Scan until there are no grey nodes left, i.e. until everything reachable from them is black.
+     * @throws AllocationException if there was a problem scanning any node
+     * @throws PropertyAccessException if there was a problem relinking any node
+     */
+    private void drainGrey() throws AllocationException, PropertyAccessException {
+        if (marker == null) {
+            while (anyOfType(GREY))
+                scan(getFront(GREY));
+            return;
+        }
+        // the grey nodes can be blackened up front, since the marker traces from them whatever their colour
+        List<GCNode<? super EpiscopalObject>> grey = new ArrayList<>();
+        while (anyOfType(GREY) && getFront(GREY).type() == GREY) {
+            GCNode<? super EpiscopalObject> node = getFront(GREY);
+            make(node, BLACK);
+            grey.add(node);
+        }
+        // the marker only recolours the nodes it claims in the heap, so they are still in the ecru segment (and counted
+        // as ecru); make them ecru again first, so the fronts stay consistent while they are moved one at a time
+        List<GCNode<? super EpiscopalObject>> marked = marker.mark(grey);
+        for (GCNode<? super EpiscopalObject> node : marked)
+            node.setType(ECRU);
+        for (GCNode<? super EpiscopalObject> node : marked)
+            make(node, BLACK);
+    }
+
     /**
      * Flip is called if there are no free nodes left to assign to an object.
      * All ecru nodes at present (objects which have been deemed unreachable) are made white, and their objects are
@@ -241,21 +857,27 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
     private void flip() throws AllocationException {
         try {
             printTreadmill("starting flip", DebugMode.VERBOSE);
-            while (anyOfType(GREY))
-                scan(getFront(GREY));
+            flips++;
+            allocationsAtFlip = allocations;
+            shadeNurseryReferents();
+            drainGrey();
             // turn all ecru nodes into white nodes (freeing their linked data)
             GCNode<? super EpiscopalObject> node = getFront(ECRU);
             while (node != null && node.type() == NodeType.ECRU) {
                 heapAllocator.free(node.data.getInstance());
-                node.data.setInstance(null);
+                collected++;
+                node.data.store(null);
                 GCNode<? super EpiscopalObject> next = node.next.getInstance();
                 make(node, NodeType.WHITE);
                 node = next;
             }
             printTreadmill("turn ecru into white", DebugMode.VERBOSE);
             if (isHeapFull()) {
-                addNewFreeNode();
-                printTreadmill("add new free node", DebugMode.VERBOSE);
+                growWhitePool();
+                printTreadmill("add new free nodes", DebugMode.VERBOSE);
+            } else {
+                shrinkWhitePool();
+                printTreadmill("free surplus white nodes", DebugMode.VERBOSE);
             }
             // turn all black nodes into ecru
             node = getFront(BLACK);
@@ -269,6 +891,8 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
             printTreadmill("turn black into ecru", DebugMode.VERBOSE);
             markRoots();
             printTreadmill("mark roots as grey / finish flip", DebugMode.NORMAL);
+            if (compactionThreshold != Double.POSITIVE_INFINITY && compactingAllocator().fragmentation() > compactionThreshold)
+                compact();
         } catch (PropertyAccessException e) {
             throw new AllocationException(e);
         }
@@ -282,22 +906,94 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      */
     private void initTreadmill(Collection<EpiscopalObject> initialRoots) throws AllocationException, PropertyAccessException {
         roots = new HashSet<>(initialRoots);
-        nodes = new HashSet<>();
         GCNode<? super EpiscopalObject> firstRoot = null;
         for (EpiscopalObject o : initialRoots) {
             GCNode<? super EpiscopalObject> node = allocateRootObject(o);
             if (firstRoot == null)
                 firstRoot = node;
             if (firstRoot.prev.getInstance() == null)
-                firstRoot.prev.setInstance(node);
+                firstRoot.prev.store(node);
             else
-                firstRoot.prev.getInstance().next.setInstance(node);
-            node.next.setInstance(firstRoot);
+                firstRoot.prev.getInstance().next.store(node);
+            node.next.store(firstRoot);
         }
         if (firstRoot != null)
             setFront(firstRoot.type(), firstRoot);
     }
 
+    /**
+     * Read a treadmill back from the heap: every node is found by walking the treadmill from one of the fronts recorded
+     * in the header, and the objects they reference are recreated from their recorded {@link EpiscopalType}s.
+     * @throws AllocationException if the heap does not hold a treadmill, or any of its objects could not be recreated
+     * @throws PropertyAccessException if there was a problem reading any of the nodes or objects
+     */
+    @SuppressWarnings("unchecked")
+    private void restoreTreadmill() throws AllocationException, PropertyAccessException {
+        Heap heap = heapAllocator.getHeap();
+        header = new TreadmillHeader();
+        header.setHeap(heap);
+        if (heap.getSize() < header.size() || !header.isValid())
+            throw new AllocationException("heap does not hold a treadmill");
+        roots = new HashSet<>();
+        // recreate the nodes by walking the treadmill from the first front which exists
+        Map<Long, GCNode<? super EpiscopalObject>> nodesByAddress = new HashMap<>();
+        long address = Heap.NULL;
+        for (NodeType colour : NodeType.values())
+            if (address == Heap.NULL)
+                address = header.getFront(colour);
+        while (address != Heap.NULL && !nodesByAddress.containsKey(address)) {
+            GCNode<? super EpiscopalObject> node = new GCNode<>(null);
+            node.setAddress(address);
+            node.setHeap(heap);
+            nodesByAddress.put(address, node);
+            address = node.next.getLong();
+        }
+        // link the nodes together and recreate the objects referenced by any non-white nodes
+        Map<Long, EpiscopalObject> objectsByAddress = new HashMap<>();
+        for (GCNode<? super EpiscopalObject> node : nodesByAddress.values()) {
+            node.prev.store(nodesByAddress.get(node.prev.getLong()));
+            node.next.store(nodesByAddress.get(node.next.getLong()));
+            colourCounts[node.type().ordinal()]++;
+            nodeCount++;
+            if (node.type() == WHITE)
+                continue;
+            long dataAddress = node.data.getLong();
+            EpiscopalType type = node.dataType();
+            if (type == null)
+                throw new AllocationException("cannot restore the object at address " + dataAddress + " because its type is unknown");
+            EpiscopalObject object;
+            try {
+                object = type.restore(heap, dataAddress);
+            } catch (TagNotFoundException e) {
+                throw new AllocationException("cannot restore the object at address " + dataAddress, e);
+            }
+            object.setAddress(dataAddress);
+            object.setHeap(heap);
+            object.setGCNode(node);
+            node.data.store(object);
+            objectsByAddress.put(dataAddress, object);
+            if (node.isRoot())
+                roots.add(object);
+        }
+        // references between objects are only held as addresses in the heap, so give them back their instances
+        for (EpiscopalObject object : objectsByAddress.values()) {
+            for (ReferenceProperty reference : object.reachableReferences()) {
+                EpiscopalObject instance = objectsByAddress.get(reference.getLong());
+                if (instance != null)
+                    reference.setInstance(instance);
+            }
+        }
+        top = nodesByAddress.get(header.getFront(GREY));
+        scan = nodesByAddress.get(header.getFront(BLACK));
+        free = nodesByAddress.get(header.getFront(WHITE));
+        bottom = nodesByAddress.get(header.getFront(ECRU));
+        List<MemoryManagedObject> live = new ArrayList<>();
+        live.add(header);
+        live.addAll(nodesByAddress.values());
+        live.addAll(objectsByAddress.values());
+        heapAllocator.restore(live);
+    }
+
     /**
      * @param object the object to allocate as a root object
      * @return a {@link GCNode} which references the given object as its data
@@ -309,8 +1005,10 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         object.setGCNode(node);
         heapAllocator.allocate(object);
         heapAllocator.allocate(node);
-        node.setType(GREY);
-        nodes.add(node);
+        node.data.store(object);
+        node.setHeader(GREY, EpiscopalType.of(object), true);
+        colourCounts[GREY.ordinal()]++;
+        nodeCount++;
         return node;
     }
 
@@ -329,6 +1027,69 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         }
     }
 
+    /**
+     * Add a batch of white nodes sized by the growth factor. If the heap cannot hold the whole batch, as many nodes as
+     * fit are added.
+     * @throws PropertyAccessException if there was a problem setting any of the properties on the nodes
+     * @throws AllocationException if not even one node could be allocated
+     */
+    private void growWhitePool() throws PropertyAccessException, AllocationException {
+        int batch = (int)Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(nodeCount * growthFactor)));
+        addNewFreeNode();
+        try {
+            for (int i = 1; i < batch; i++)
+                addNewFreeNode();
+        } catch (OutOfMemoryException e) {
+            // keep the nodes which did fit
+        }
+    }
+
+    /**
+     * Free white nodes beyond the maximum white node ratio, keeping at least one.
+     * @throws PropertyAccessException if there was a problem unlinking any of the nodes
+     * @throws AllocationException if there was a problem freeing any of the nodes
+     */
+    private void shrinkWhitePool() throws PropertyAccessException, AllocationException {
+        if (maxWhiteRatio == Double.POSITIVE_INFINITY)
+            return;
+        int white = colourCounts[WHITE.ordinal()];
+        double limit = Math.max(1, Math.ceil((nodeCount - white) * maxWhiteRatio));
+        for (; white > limit; white--) {
+            GCNode<? super EpiscopalObject> node = getFront(WHITE);
+            unlink(node);
+            heapAllocator.free(node);
+            colourCounts[WHITE.ordinal()]--;
+            nodeCount--;
+        }
+    }
+
+    /**
+     * Allocate space for an object in the heap, compacting the heap and trying again if compaction is enabled and the
+     * free space is only too fragmented to hold the object.
+     * @param object the object to allocate space for
+     * @throws AllocationException if there was no space for the object
+     */
+    private void allocateSpace(MemoryManagedObject object) throws AllocationException {
+        try {
+            heapAllocator.allocate(object);
+        } catch (OutOfMemoryException e) {
+            if (compactionThreshold == Double.POSITIVE_INFINITY || heapAllocator.freeSpace() < object.size())
+                throw e;
+            compact();
+            heapAllocator.allocate(object);
+        }
+    }
+
+    /**
+     * @return the heap allocator, if it can compact its heap
+     * @throws IllegalStateException if it can't
+     */
+    private BasicAllocator compactingAllocator() {
+        if (!(heapAllocator instanceof BasicAllocator))
+            throw new IllegalStateException("cannot compact a heap allocated by " + heapAllocator.getClass().getSimpleName());
+        return (BasicAllocator)heapAllocator;
+    }
+
     /**
      * Allocate and add a new white node to the treadmill.
      * @throws PropertyAccessException if there was a problem setting any of the properties on the node
@@ -336,8 +1097,11 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      */
     private void addNewFreeNode() throws PropertyAccessException, AllocationException {
         GCNode<? super EpiscopalObject> node = new GCNode<>(null);
-        heapAllocator.allocate(node);
-        nodes.add(node);
+        allocateSpace(node);
+        // the node's words may have been used before, so don't trust any of them
+        node.setHeader(NodeType.WHITE, null, false);
+        colourCounts[WHITE.ordinal()]++;
+        nodeCount++;
         make(node, NodeType.WHITE);
     }
 
@@ -346,22 +1110,24 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      * type in the treadmill's doubly-linked list.
      * @param colour the colour to set the front for
      * @param node the node to set the front as
+     * @throws PropertyAccessException if there was a problem recording the front in the treadmill's header
      */
-    private void setFront(NodeType colour, GCNode<? super EpiscopalObject> node) {
+    private void setFront(NodeType colour, GCNode<? super EpiscopalObject> node) throws PropertyAccessException {
         switch (colour) {
             case GREY:
                 top = node;
-                return;
+                break;
             case BLACK:
                 scan = node;
-                return;
+                break;
             case WHITE:
                 free = node;
-                return;
+                break;
             case ECRU:
                 bottom = node;
-                return;
+                break;
         }
+        header.setFront(colour, node == null ? Heap.NULL : node.getAddress());
     }
 
     /**
@@ -459,6 +1225,8 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      * @throws PropertyAccessException if there was a problem accessing the properties of the given node
      */
     private void make(GCNode<? super EpiscopalObject> node, NodeType colour) throws PropertyAccessException {
+        colourCounts[node.type().ordinal()]--;
+        colourCounts[colour.ordinal()]++;
         insertPrev(insertionPoint(colour), node);
         node.setType(colour);
         reassignFronts(node);
@@ -480,11 +1248,11 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         unlink(newPrev);
         GCNode<? super EpiscopalObject> lastPrev = node.prev.getInstance();
         // make surrounding nodes point to the inserted one
-        lastPrev.next.setInstance(newPrev);
-        node.prev.setInstance(newPrev);
+        lastPrev.next.store(newPrev);
+        node.prev.store(newPrev);
         // make the inserted node point to the surrounding nodes
-        newPrev.prev.setInstance(lastPrev);
-        newPrev.next.setInstance(node);
+        newPrev.prev.store(lastPrev);
+        newPrev.next.store(node);
     }
 
     /**
@@ -534,12 +1302,12 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
         }
         GCNode<? super EpiscopalObject> prev = node.prev.getInstance();
         GCNode<? super EpiscopalObject> next = node.next.getInstance();
-        node.next.setInstance(null);
-        node.prev.setInstance(null);
+        node.next.store(null);
+        node.prev.store(null);
         if (prev != null)
-            prev.next.setInstance(next);
+            prev.next.store(next);
         if (next != null)
-            next.prev.setInstance(prev);
+            next.prev.store(prev);
     }
 
     /**
@@ -557,12 +1325,13 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
      */
     private void allocateObjectIntoFree(EpiscopalObject object) throws AllocationException {
         try {
-            heapAllocator.allocate(object);
+            allocateSpace(object);
             GCNode<? super EpiscopalObject> freeNode = getFront(WHITE);
             if (freeNode == null)
                 throw new AllocationException("could not find free node to allocate object " + object.toString() + " with");
             object.setGCNode(freeNode);
-            freeNode.data.setInstance(object);
+            freeNode.data.store(object);
+            freeNode.setDataType(EpiscopalType.of(object));
             make(freeNode, BLACK);
         } catch (PropertyAccessException e) {
             throw new AllocationException(e);
@@ -571,6 +1340,26 @@ public class TreadmillAllocator implements Allocator<EpiscopalObject> {
 
     //******** DEBUGGING HELPERS ********//
 
+    /**
+     * @return the header, every node of the treadmill and every object they reference
+     */
+    private List<MemoryManagedObject> treadmillObjects() throws PropertyAccessException {
+        List<MemoryManagedObject> objects = new ArrayList<>();
+        objects.add(header);
+        GCNode<? super EpiscopalObject> front = firstAvailableFront();
+        GCNode<? super EpiscopalObject> node = front;
+        while (node != null) {
+            objects.add(node);
+            EpiscopalObject object = node.data.getInstance();
+            if (object != null)
+                objects.add(object);
+            node = node.next.getInstance();
+            if (node == front)
+                break;
+        }
+        return objects;
+    }
+
     /**
      * Print a representation of the current treadmill to standard-out.
      * @param state a label to associate with the current state of the treadmill
@@ -0,0 +1,80 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+import object.properties.IntProperty;
+import object.properties.LongProperty;
+
+/**
+ * The first object in a {@link TreadmillAllocator}'s heap. It records the addresses of the treadmill's coloured
+ * "fronts", which together with the {@link GCNode}s themselves describe the whole treadmill, so that the allocator can
+ * be recreated from the heap alone.
+ */
+public class TreadmillHeader extends MemoryManagedObject {
+
+    public static final int MAGIC = 0x54524d4c;
+
+    public static final int VERSION = 3;
+
+    /**
+     * The address of the header in the heap; it is always the first object allocated.
+     */
+    public static final int ADDRESS = 0;
+
+    private final IntProperty magic = new IntProperty();
+    private final IntProperty version = new IntProperty();
+    private final LongProperty top = new LongProperty();
+    private final LongProperty scan = new LongProperty();
+    private final LongProperty free = new LongProperty();
+    private final LongProperty bottom = new LongProperty();
+
+    public TreadmillHeader() {
+        super(ADDRESS);
+        addProperty(magic);
+        addProperty(version);
+        addProperty(top);
+        addProperty(scan);
+        addProperty(free);
+        addProperty(bottom);
+    }
+
+    @Override
+    public void onAllocate() throws PropertyAccessException {
+        magic.setInt(MAGIC);
+        version.setInt(VERSION);
+        for (NodeType colour : NodeType.values())
+            setFront(colour, Heap.NULL);
+    }
+
+    /**
+     * @return true if the words at this header's address hold a treadmill header of a supported version
+     */
+    public boolean isValid() throws PropertyAccessException {
+        return magic.getInt() == MAGIC && version.getInt() == VERSION;
+    }
+
+    /**
+     * @param colour the colour to get the front for
+     * @return the address of the node at the front for the given colour, or {@link Heap#NULL} if there is none
+     */
+    public long getFront(NodeType colour) throws PropertyAccessException {
+        return frontProperty(colour).getLong();
+    }
+
+    public void setFront(NodeType colour, long address) throws PropertyAccessException {
+        frontProperty(colour).setLong(address);
+    }
+
+    private LongProperty frontProperty(NodeType colour) {
+        switch (colour) {
+            case GREY:
+                return top;
+            case BLACK:
+                return scan;
+            case WHITE:
+                return free;
+            default:
+                return bottom;
+        }
+    }
+}
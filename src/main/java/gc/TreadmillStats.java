@@ -0,0 +1,114 @@
+package gc;
+
+/**
+ * A snapshot of a {@link TreadmillAllocator}'s state, taken in constant time from counters the allocator keeps up to
+ * date as it runs, so it is cheap enough to poll.
+ */
+public final class TreadmillStats {
+
+    private final int[] colourCounts;
+    private final long heapSize;
+    private final long freeSpace;
+    private final long allocations;
+    private final long frees;
+    private final long collected;
+    private final long flips;
+    private final long nurseryCollections;
+    private final long promoted;
+
+    TreadmillStats(int[] colourCounts, long heapSize, long freeSpace, long allocations, long frees, long collected, long flips, long nurseryCollections, long promoted) {
+        this.colourCounts = colourCounts.clone();
+        this.heapSize = heapSize;
+        this.freeSpace = freeSpace;
+        this.allocations = allocations;
+        this.frees = frees;
+        this.collected = collected;
+        this.flips = flips;
+        this.nurseryCollections = nurseryCollections;
+        this.promoted = promoted;
+    }
+
+    /**
+     * @param colour a node colour
+     * @return the number of nodes of the given colour
+     */
+    public int nodes(NodeType colour) {
+        return colourCounts[colour.ordinal()];
+    }
+
+    /**
+     * @return the number of nodes of any colour
+     */
+    public int nodes() {
+        int total = 0;
+        for (int count : colourCounts)
+            total += count;
+        return total;
+    }
+
+    public long heapSize() {
+        return heapSize;
+    }
+
+    /**
+     * @return the number of heap words not in use by any object or node
+     */
+    public long freeSpace() {
+        return freeSpace;
+    }
+
+    public long usedSpace() {
+        return heapSize - freeSpace;
+    }
+
+    /**
+     * @return the number of objects allocated since the allocator was created
+     */
+    public long allocations() {
+        return allocations;
+    }
+
+    /**
+     * @return the number of objects explicitly freed since the allocator was created
+     */
+    public long frees() {
+        return frees;
+    }
+
+    /**
+     * @return the number of unreachable objects collected by flips since the allocator was created
+     */
+    public long collected() {
+        return collected;
+    }
+
+    public long flips() {
+        return flips;
+    }
+
+    public long nurseryCollections() {
+        return nurseryCollections;
+    }
+
+    /**
+     * @return the number of objects moved from the nursery into the treadmill since the allocator was created
+     */
+    public long promoted() {
+        return promoted;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TreadmillStats{");
+        for (NodeType colour : NodeType.values())
+            builder.append(colour.name().toLowerCase()).append('=').append(nodes(colour)).append(", ");
+        return builder.append("used=").append(usedSpace()).append('/').append(heapSize)
+                .append(", allocations=").append(allocations)
+                .append(", frees=").append(frees)
+                .append(", collected=").append(collected)
+                .append(", flips=").append(flips)
+                .append(", nurseryCollections=").append(nurseryCollections)
+                .append(", promoted=").append(promoted)
+                .append('}').toString();
+    }
+}
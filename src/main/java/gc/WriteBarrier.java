@@ -0,0 +1,25 @@
+package gc;
+
+import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
+import object.properties.ReferenceProperty;
+
+/**
+ * Makes every reference stored into an object of a {@link Heap}, so that a collector which marks while the program runs
+ * can keep track of objects that become reachable from ones it has already scanned, or from outside a nursery. See
+ * {@link Heap#setWriteBarrier}.
+ */
+public interface WriteBarrier {
+
+    /**
+     * Store a reference into an object of the heap. The barrier performs the store itself, with
+     * {@link ReferenceProperty#store}, so that the store and whatever the barrier records about it happen atomically with
+     * respect to the collector.
+     * @param source the object the reference is stored into
+     * @param reference the reference to store into
+     * @param target the object to be referenced, or null if the reference is being cleared
+     * @param <T> the type of object referenced
+     * @throws PropertyAccessException if there was a problem storing or recording the reference
+     */
+    <T extends MemoryManagedObject> void storeReference(MemoryManagedObject source, ReferenceProperty<T> reference, T target) throws PropertyAccessException;
+}
@@ -0,0 +1,89 @@
+package object;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A two-way mapping between classes and small integer tags, so that a class can be stored in a single heap word.
+ * Decoding a tag is a single array lookup.
+ * <p>
+ * Tags only mean something to the registry which handed them out. A heap which outlives the process that wrote it can
+ * only be read back if every class it refers to has been registered with the same tag again, so such classes should be
+ * registered explicitly with {@link #register(Class, int)}.
+ */
+public class TypeRegistry {
+
+    /**
+     * Tags below this are never handed out automatically, leaving them free for explicit registration.
+     */
+    public static final int RESERVED_TAGS = 64;
+
+    /**
+     * The registry used by default for class properties.
+     */
+    public static final TypeRegistry DEFAULT = new TypeRegistry();
+
+    private final Map<Class<?>, Integer> tags = new HashMap<>();
+
+    // copied on write, so that lookups never need to lock
+    private volatile Class<?>[] classes = new Class<?>[RESERVED_TAGS];
+
+    private int nextTag = RESERVED_TAGS;
+
+    /**
+     * Register the given class with the next free tag, unless it is registered already.
+     * @param clazz the class to register
+     * @return the tag of the class
+     */
+    public synchronized int register(Class<?> clazz) {
+        Integer tag = tags.get(clazz);
+        if (tag != null)
+            return tag;
+        while (nextTag < classes.length && classes[nextTag] != null)
+            nextTag++;
+        return register(clazz, nextTag);
+    }
+
+    /**
+     * Register the given class with a specific tag.
+     * @param clazz the class to register
+     * @param tag the tag to give the class
+     * @return the tag of the class
+     * @throws IllegalArgumentException if the class already has a different tag, or the tag is in use by another class
+     */
+    public synchronized int register(Class<?> clazz, int tag) {
+        if (tag < 0)
+            throw new IllegalArgumentException("illegal type tag: " + tag + "; tag must be >= 0");
+        Integer existing = tags.get(clazz);
+        if (existing != null && existing != tag)
+            throw new IllegalArgumentException("class " + clazz.getName() + " is already registered with tag " + existing);
+        if (tag < classes.length && classes[tag] != null && classes[tag] != clazz)
+            throw new IllegalArgumentException("tag " + tag + " is already in use by class " + classes[tag].getName());
+        Class<?>[] updated = Arrays.copyOf(classes, Math.max(classes.length, tag + 1));
+        updated[tag] = clazz;
+        classes = updated;
+        tags.put(clazz, tag);
+        return tag;
+    }
+
+    /**
+     * @param clazz the class to find the tag for
+     * @return the tag of the class, registering the class first if necessary
+     */
+    public int tagOf(Class<?> clazz) {
+        return register(clazz);
+    }
+
+    /**
+     * @param tag the tag to decode
+     * @return the class registered with the tag
+     * @throws TagNotFoundException if no class is registered with the tag
+     */
+    public Class<?> classOf(int tag) throws TagNotFoundException {
+        Class<?>[] classes = this.classes;
+        if (tag < 0 || tag >= classes.length || classes[tag] == null)
+            throw new TagNotFoundException("no class is registered with type tag " + tag);
+        return classes[tag];
+    }
+}
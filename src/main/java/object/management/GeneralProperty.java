@@ -9,6 +9,25 @@ public abstract class GeneralProperty<T> implements Marshallable<T>, Sizeable {
 
     private MemoryManagedObject parent;
 
+    /**
+     * Copy the raw words of this property into the given buffer, without allocating anything.
+     * @param buffer the buffer to copy into; it must have room for {@link #size()} words from the offset
+     * @param offset the position in the buffer to copy the first word to
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void read(long[] buffer, int offset) throws NullHeapException {
+        parent.readWords(this, buffer, offset);
+    }
+
+    /**
+     * Read the first word of this property straight from the heap, e.g. for a property which is one word in size.
+     * @return the property's first word
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    protected long readWord() throws NullHeapException {
+        return parent.readWord(this);
+    }
+
     void setParent(MemoryManagedObject parent) {
         this.parent = parent;
     }
@@ -14,7 +14,7 @@ public abstract class MemoryManagedObject implements Sizeable {
     /**
      * Where this object resides in a given heap.
      */
-    private int address;
+    private long address;
 
     /**
      * nextRelativePropertyAddress is incremented as properties are added at object construction time - it also
@@ -27,14 +27,14 @@ public abstract class MemoryManagedObject implements Sizeable {
      */
     private List<GeneralProperty> properties;
 
-    public MemoryManagedObject(int address) {
+    public MemoryManagedObject(long address) {
         this.address = address;
         this.nextRelativePropertyAddress = 0;
         this.properties = new ArrayList<>();
     }
 
-    public MemoryManagedObject(Integer address) {
-        this(address.intValue());
+    public MemoryManagedObject(Long address) {
+        this(address.longValue());
     }
 
     public MemoryManagedObject() {
@@ -71,7 +71,7 @@ public abstract class MemoryManagedObject implements Sizeable {
         return heap;
     }
 
-    public int getAddress() {
+    public long getAddress() {
         return address;
     }
 
@@ -79,7 +79,7 @@ public abstract class MemoryManagedObject implements Sizeable {
      * Package-local property setter for changing the address of this object.
      * @param address the address of this object in the heap
      */
-    public void setAddress(int address) {
+    public void setAddress(long address) {
         this.address = address;
     }
 
@@ -91,6 +91,38 @@ public abstract class MemoryManagedObject implements Sizeable {
         writeForProperty(property, property.marshall(value));
     }
 
+    /**
+     * Read the single word of a one-word property straight from the heap.
+     */
+    long readWord(GeneralProperty property) throws NullHeapException {
+        checkHeap(property);
+        return heap.get(address + property.getRelativeAddress());
+    }
+
+    /**
+     * Write the single word of a one-word property straight to the heap.
+     */
+    void writeWord(GeneralProperty property, long word) throws NullHeapException {
+        checkHeap(property);
+        heap.put(address + property.getRelativeAddress(), word);
+    }
+
+    /**
+     * Copy the words of a property into a buffer supplied by the caller.
+     */
+    void readWords(GeneralProperty property, long[] buffer, int offset) throws NullHeapException {
+        checkHeap(property);
+        heap.get(address + property.getRelativeAddress(), buffer, offset, property.size());
+    }
+
+    /**
+     * Copy the words of a property from a buffer supplied by the caller.
+     */
+    void writeWords(GeneralProperty property, long[] buffer, int offset) throws NullHeapException {
+        checkHeap(property);
+        heap.put(address + property.getRelativeAddress(), buffer, offset, property.size());
+    }
+
     protected void addProperty(GeneralProperty property) {
         if (properties.contains(property))
             throw new RuntimeException("property \"" + property.toString() + "\" already exists");
@@ -102,13 +134,13 @@ public abstract class MemoryManagedObject implements Sizeable {
 
     private long[] readForProperty(GeneralProperty property) throws NullHeapException {
         checkHeap(property);
-        int absolute = address + property.getRelativeAddress();
+        long absolute = address + property.getRelativeAddress();
         return heap.get(absolute, property.size());
     }
 
     private void writeForProperty(GeneralProperty property, long[] data) throws NullHeapException {
         checkHeap(property);
-        int absolute = address + property.getRelativeAddress();
+        long absolute = address + property.getRelativeAddress();
         heap.put(absolute, data);
     }
 
@@ -9,4 +9,14 @@ public abstract class Property<T> extends GeneralProperty<T> implements Readable
     public void set(T value) throws NullHeapException {
         getParent().set(this, value);
     }
+
+    /**
+     * Copy raw words from the given buffer into this property, without allocating anything.
+     * @param buffer the buffer to copy from; it must hold {@link #size()} words from the offset
+     * @param offset the position in the buffer of the first word to copy
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void write(long[] buffer, int offset) throws NullHeapException {
+        getParent().writeWords(this, buffer, offset);
+    }
 }
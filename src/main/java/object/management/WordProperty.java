@@ -0,0 +1,61 @@
+package object.management;
+
+/**
+ * A {@link Property} which occupies exactly one heap word. Values are converted to and from that word directly, so
+ * reading or writing the property never allocates a temporary array.
+ */
+public abstract class WordProperty<T> extends Property<T> {
+
+    /**
+     * @param object the value to convert
+     * @return the heap word representing the value
+     */
+    public abstract long toWord(T object);
+
+    /**
+     * @param word the heap word to convert
+     * @return the value represented by the heap word
+     */
+    public abstract T fromWord(long word);
+
+    @Override
+    public T get() throws NullHeapException {
+        return fromWord(getWord());
+    }
+
+    @Override
+    public void set(T value) throws NullHeapException {
+        setWord(toWord(value));
+    }
+
+    /**
+     * @return the raw heap word of this property
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    protected long getWord() throws NullHeapException {
+        return readWord();
+    }
+
+    /**
+     * @param word the raw heap word to write to this property
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    protected void setWord(long word) throws NullHeapException {
+        getParent().writeWord(this, word);
+    }
+
+    @Override
+    public long[] marshall(T object) {
+        return new long[] { toWord(object) };
+    }
+
+    @Override
+    public T unmarshall(long[] data) {
+        return fromWord(data[0]);
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+}
@@ -1,20 +1,43 @@
 package object.properties;
 
-import object.management.Property;
+import object.management.NullHeapException;
+import object.management.WordProperty;
+
+public class BooleanProperty extends WordProperty<Boolean> {
+
+    /**
+     * @return the value of this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public boolean getBoolean() throws NullHeapException {
+        return getWord() != 0;
+    }
+
+    /**
+     * @param value the value to give this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void setBoolean(boolean value) throws NullHeapException {
+        setWord(value ? 1 : 0);
+    }
+
+    @Override
+    public Boolean get() throws NullHeapException {
+        return getBoolean();
+    }
 
-public class BooleanProperty extends Property<Boolean> {
     @Override
-    public long[] marshall(Boolean object) {
-        return new long[] { object ? 1 : 0 };
+    public void set(Boolean value) throws NullHeapException {
+        setBoolean(value);
     }
 
     @Override
-    public Boolean unmarshall(long[] data) {
-        return data[0] != 0;
+    public long toWord(Boolean object) {
+        return object ? 1 : 0;
     }
 
     @Override
-    public int size() {
-        return 1;
+    public Boolean fromWord(long word) {
+        return word != 0;
     }
 }
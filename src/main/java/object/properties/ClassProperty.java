@@ -1,52 +1,78 @@
 package object.properties;
 
+import gc.Heap;
+import object.TagNotFoundException;
+import object.TypeRegistry;
 import object.management.MemoryManagedObject;
+import object.management.PropertyAccessException;
 import object.management.ReadOnlyProperty;
-import org.apache.commons.lang3.SerializationUtils;
 
 public class ClassProperty<T> extends ReadOnlyProperty<Class<? extends T>> {
 
-    private final Class<? extends T> clazz;
+    /**
+     * A class property is stored as the class's tag in a {@link TypeRegistry}, which always fits in one word.
+     */
+    public static final int SIZE = 1;
+
+    private final TypeRegistry registry;
 
-    // cache this as the class definition will never change at runtime (we'd only hope)
-    private long[] cache = null;
+    /**
+     * @param clazz The class to represent. This cannot be changed after the fact, as such {@link ClassProperty} is a
+     *              {@link ReadOnlyProperty}. If one requires the class value to change then one will have to create a
+     *              new {@link MemoryManagedObject} somewhere else containing the new class property.
+     * @param registry the registry to map the class to a tag with
+     */
+    public ClassProperty(final Class<? extends T> clazz, TypeRegistry registry) {
+        this.registry = registry;
+        registry.register(clazz);
+    }
 
     /**
-     * @param clazz The class to represent. This cannot be changed after the fact as the size must remain constant. As
-     *              such, {@link ClassProperty} is a {@link ReadOnlyProperty}. If one requires the class value to change
-     *              then one will have to create a new {@link MemoryManagedObject} somewhere else containing the new
-     *              class property.
+     * @param clazz The class to represent, which is mapped to a tag with {@link TypeRegistry#DEFAULT}.
      */
     public ClassProperty(final Class<? extends T> clazz) {
-        this.clazz = clazz;
-        defaultCache();
+        this(clazz, TypeRegistry.DEFAULT);
     }
 
-    private void defaultCache() {
-        if (cache == null)
-            marshall(clazz);
+    /**
+     * Read a class property directly from a heap, without knowing which class it holds in advance.
+     * @param heap the heap to read from
+     * @param address the absolute address of the property
+     * @param registry the registry the property was written with
+     * @return the class held by the property
+     * @throws TagNotFoundException if the tag in the heap is not registered
+     */
+    public static Class<?> read(Heap heap, long address, TypeRegistry registry) throws TagNotFoundException {
+        return registry.classOf((int)heap.get(address));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Class<? extends T> get() throws PropertyAccessException {
+        try {
+            return (Class<? extends T>)registry.classOf((int)readWord());
+        } catch (TagNotFoundException e) {
+            throw new PropertyAccessException(e);
+        }
     }
 
     @Override
     public long[] marshall(Class<? extends T> object) {
-        byte[] data = SerializationUtils.serialize(object);
-        cache = new long[data.length];
-        for (int i = 0; i < data.length; i++)
-            cache[i] = data[i];
-        return cache;
+        return new long[] { registry.tagOf(object) };
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Class<? extends T> unmarshall(long[] data) {
-        cache = data;
-        byte[] buffer = new byte[cache.length];
-        for (int i = 0; i < cache.length; i++)
-            buffer[i] = (byte)cache[i];
-        return SerializationUtils.deserialize(buffer);
+        try {
+            return (Class<? extends T>)registry.classOf((int)data[0]);
+        } catch (TagNotFoundException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
     }
 
     @Override
     public int size() {
-        return cache.length;
+        return SIZE;
     }
 }
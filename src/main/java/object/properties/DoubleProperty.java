@@ -1,21 +1,43 @@
 package object.properties;
 
-import object.management.Property;
+import object.management.NullHeapException;
+import object.management.WordProperty;
 
-public class DoubleProperty extends Property<Double> {
+public class DoubleProperty extends WordProperty<Double> {
+
+    /**
+     * @return the value of this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public double getDouble() throws NullHeapException {
+        return Double.longBitsToDouble(getWord());
+    }
+
+    /**
+     * @param value the value to give this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void setDouble(double value) throws NullHeapException {
+        setWord(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public Double get() throws NullHeapException {
+        return getDouble();
+    }
 
     @Override
-    public long[] marshall(Double object) {
-        return new long[] { Double.doubleToLongBits(object) };
+    public void set(Double value) throws NullHeapException {
+        setDouble(value);
     }
 
     @Override
-    public Double unmarshall(long[] data) {
-        return Double.longBitsToDouble(data[0]);
+    public long toWord(Double object) {
+        return Double.doubleToLongBits(object);
     }
 
     @Override
-    public int size() {
-        return 1;
+    public Double fromWord(long word) {
+        return Double.longBitsToDouble(word);
     }
 }
@@ -1,21 +1,43 @@
 package object.properties;
 
-import object.management.Property;
+import object.management.NullHeapException;
+import object.management.WordProperty;
 
-public class IntProperty extends Property<Integer> {
+public class IntProperty extends WordProperty<Integer> {
+
+    /**
+     * @return the value of this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public int getInt() throws NullHeapException {
+        return (int)getWord();
+    }
+
+    /**
+     * @param value the value to give this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void setInt(int value) throws NullHeapException {
+        setWord(value);
+    }
+
+    @Override
+    public Integer get() throws NullHeapException {
+        return getInt();
+    }
 
     @Override
-    public long[] marshall(Integer object) {
-        return new long[] { object };
+    public void set(Integer value) throws NullHeapException {
+        setInt(value);
     }
 
     @Override
-    public Integer unmarshall(long[] data) {
-        return (int)data[0];
+    public long toWord(Integer object) {
+        return object;
     }
 
     @Override
-    public int size() {
-        return 1;
+    public Integer fromWord(long word) {
+        return (int)word;
     }
 }
@@ -0,0 +1,43 @@
+package object.properties;
+
+import object.management.NullHeapException;
+import object.management.WordProperty;
+
+public class LongProperty extends WordProperty<Long> {
+
+    /**
+     * @return the value of this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public long getLong() throws NullHeapException {
+        return getWord();
+    }
+
+    /**
+     * @param value the value to give this property, without boxing it
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void setLong(long value) throws NullHeapException {
+        setWord(value);
+    }
+
+    @Override
+    public Long get() throws NullHeapException {
+        return getLong();
+    }
+
+    @Override
+    public void set(Long value) throws NullHeapException {
+        setLong(value);
+    }
+
+    @Override
+    public long toWord(Long object) {
+        return object;
+    }
+
+    @Override
+    public Long fromWord(long word) {
+        return word;
+    }
+}
@@ -1,10 +1,12 @@
 package object.properties;
 
 import gc.Heap;
+import gc.WriteBarrier;
 import object.management.MemoryManagedObject;
 import object.management.NullHeapException;
+import object.management.PropertyAccessException;
 
-public class ReferenceProperty<T extends MemoryManagedObject> extends IntProperty {
+public class ReferenceProperty<T extends MemoryManagedObject> extends LongProperty {
 
     private T instance;
 
@@ -13,23 +15,23 @@ public class ReferenceProperty<T extends MemoryManagedObject> extends IntPropert
     }
 
     @Override
-    public void set(Integer value) throws NullHeapException {
+    public void setLong(long value) throws NullHeapException {
         T instance = getInstance();
         // the passed value has authority over the address in this case
         if (instance != null)
             instance.setAddress(value);
-        super.set(value);
+        super.setLong(value);
     }
 
     @Override
-    public Integer get() throws NullHeapException {
-        int address = super.get();
+    public long getLong() throws NullHeapException {
+        long address = super.getLong();
         T instance = getInstance();
         if (instance != null && instance.getAddress() != address) {
             // the current instance has authority over the address in this case
             // synchronise these
             address = instance.getAddress();
-            super.set(address);
+            super.setLong(address);
         }
         return address;
     }
@@ -41,12 +43,29 @@ public class ReferenceProperty<T extends MemoryManagedObject> extends IntPropert
         return instance;
     }
 
-    public void setInstance(T instance) throws NullHeapException {
+    /**
+     * Refer to another object. The store is made through the parent's heap's {@link WriteBarrier}, if it has one.
+     * @param instance the object to refer to, or null
+     * @throws PropertyAccessException if the parent object is not associated with a heap, or the write barrier failed
+     */
+    public void setInstance(T instance) throws PropertyAccessException {
+        Heap heap = getParent().getHeap();
+        WriteBarrier barrier = heap == null ? null : heap.getWriteBarrier();
+        if (barrier == null)
+            store(instance);
+        else
+            barrier.storeReference(getParent(), this, instance);
+    }
+
+    /**
+     * Refer to another object without going through the heap's {@link WriteBarrier}. This is for write barriers
+     * themselves, and for collectors relinking their own structures.
+     * @param instance the object to refer to, or null
+     * @throws NullHeapException if the parent object is not associated with a heap
+     */
+    public void store(T instance) throws NullHeapException {
         this.instance = instance;
         // set this property's value to the global address of the object
-        if (instance == null)
-            set(Heap.NULL);
-        else
-            set(instance.getAddress());
+        setLong(instance == null ? Heap.NULL : instance.getAddress());
     }
 }
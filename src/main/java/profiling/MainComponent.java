@@ -22,5 +22,11 @@ public class MainComponent {
                 // run 100 times and average
         ), 100);
         profiler.run();
+        profiler = new TimeProfiler("property_access", new PropertyAccessProblem(), Arrays.asList(
+                // run for problem instances of these sizes
+                1, 1000, 10000, 100000, 1000000
+                // run 100 times and average
+        ), 100);
+        profiler.run();
     }
 }
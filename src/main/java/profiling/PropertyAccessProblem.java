@@ -0,0 +1,42 @@
+package profiling;
+
+import episcopal.Bool;
+import episcopal.Double;
+import episcopal.Int;
+import gc.BasicAllocator;
+
+public class PropertyAccessProblem extends Problem {
+
+    private static final int HEAP_SIZE = 16;
+
+    private int size;
+
+    private Int integer;
+
+    private Double real;
+
+    private Bool bool;
+
+    @Override
+    public void init(int size) throws Exception {
+        this.size = size;
+        BasicAllocator allocator = new BasicAllocator(HEAP_SIZE);
+        integer = new Int();
+        real = new Double();
+        bool = new Bool();
+        allocator.allocate(integer);
+        allocator.allocate(real);
+        allocator.allocate(bool);
+    }
+
+    @Override
+    public void run() throws Exception {
+        // read and write each primitive property in turn, none of which should box or allocate (the profiler reports the
+        // bytes allocated by each run, which should stay flat as the size grows)
+        for (int i = 0; i < size; i++) {
+            integer.value.setInt(integer.value.getInt() + i);
+            real.value.setDouble(real.value.getDouble() + i);
+            bool.value.setBoolean(!bool.value.getBoolean());
+        }
+    }
+}
@@ -5,9 +5,14 @@ import org.apache.commons.csv.CSVPrinter;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
+/**
+ * Runs a {@link Problem} for each of a number of instance sizes, and writes out the average time each run took along
+ * with the average number of bytes it allocated on the Java heap (or -1 if the JVM cannot measure allocation).
+ */
 public class TimeProfiler implements Runnable {
 
     private Problem p;
@@ -16,6 +21,8 @@ public class TimeProfiler implements Runnable {
 
     private Map<Integer, List<Long>> recordedTimes;
 
+    private Map<Integer, List<Long>> recordedAllocations;
+
     private int nRuns;
 
     private String name;
@@ -26,8 +33,11 @@ public class TimeProfiler implements Runnable {
         this.instanceSizes = instanceSizes;
         this.nRuns = nRuns;
         recordedTimes = new HashMap<>();
-        for (int i : instanceSizes)
+        recordedAllocations = new HashMap<>();
+        for (int i : instanceSizes) {
             recordedTimes.put(i, new ArrayList<>());
+            recordedAllocations.put(i, new ArrayList<>());
+        }
     }
 
     @Override
@@ -39,10 +49,13 @@ public class TimeProfiler implements Runnable {
             for (int size : instanceSizes) {
                 try {
                     p.init(size);
+                    long allocatedBefore = allocatedBytes();
                     long timeNow = System.nanoTime();
                     p.run();
                     long timeAfter = System.nanoTime();
+                    long allocatedAfter = allocatedBytes();
                     recordedTimes.get(size).add(timeAfter - timeNow);
+                    recordedAllocations.get(size).add(allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore);
                 } catch (Exception e) {
                     System.err.println("profiling failed on run " + run);
                     e.printStackTrace();
@@ -50,27 +63,41 @@ public class TimeProfiler implements Runnable {
                 }
             }
         }
-        writeOut(fileName, averageTimes());
+        writeOut(fileName, average(recordedTimes), average(recordedAllocations));
+    }
+
+    /**
+     * @return the number of bytes the calling thread has allocated on the Java heap so far, or -1 if the JVM cannot
+     * measure it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 
-    private Map<Integer, Long> averageTimes() {
+    private static Map<Integer, Long> average(Map<Integer, List<Long>> recorded) {
         HashMap<Integer, Long> averages = new HashMap<>();
-        for (Map.Entry<Integer, List<Long>> times : recordedTimes.entrySet()) {
+        for (Map.Entry<Integer, List<Long>> values : recorded.entrySet()) {
             long average = 0;
-            for (long time : times.getValue())
-                average += time;
-            average /= times.getValue().size();
-            averages.put(times.getKey(), average);
+            for (long value : values.getValue())
+                average += value;
+            average /= values.getValue().size();
+            averages.put(values.getKey(), average);
         }
         return averages;
     }
 
-    private void writeOut(String fileName, Map<Integer, Long> averageTimes) {
+    private void writeOut(String fileName, Map<Integer, Long> averageTimes, Map<Integer, Long> averageAllocations) {
         try {
             FileWriter out = new FileWriter(fileName);
-            try (CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("size", "time"))) {
+            try (CSVPrinter printer = new CSVPrinter(out, CSVFormat.DEFAULT.withHeader("size", "time", "allocated_bytes"))) {
                 for (Map.Entry<Integer, Long> entry : averageTimes.entrySet())
-                    printer.printRecord(entry.getKey(), entry.getValue());
+                    printer.printRecord(entry.getKey(), entry.getValue(), averageAllocations.get(entry.getKey()));
             }
         } catch (IOException e) {
             System.err.println("failed to write profiling data");
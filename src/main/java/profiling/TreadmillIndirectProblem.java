@@ -4,7 +4,7 @@ import episcopal.Indirect;
 import gc.AllocationException;
 import gc.DebugMode;
 import gc.TreadmillAllocator;
-import object.management.NullHeapException;
+import object.management.PropertyAccessException;
 
 import java.util.Arrays;
 
@@ -15,7 +15,7 @@ public class TreadmillIndirectProblem extends Problem {
     private Indirect<Indirect> rootObject;
 
     @Override
-    public void init(int size) throws AllocationException, NullHeapException {
+    public void init(int size) throws AllocationException, PropertyAccessException {
         rootObject = new Indirect<>(null);
         allocator = new TreadmillAllocator(Arrays.asList(rootObject), DebugMode.NONE);
         Indirect<Indirect> last = rootObject;
@@ -9,6 +9,7 @@ import object.properties.ReferenceProperty;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -34,6 +35,26 @@ public class DistribTest {
         assertEquals(AlternateDistributionRepresentation.class, d2.distributionType.get());
     }
 
+    @Test
+    public void testDistributionRepresentationTakesOneWord() {
+        Distrib<DistributionRepresentation> d1 = new Distrib<>(DistributionRepresentation.class, 0);
+        Distrib<AlternateDistributionRepresentation> d2 = new Distrib<>(AlternateDistributionRepresentation.class, 3);
+        assertEquals(1, d1.distributionType.size());
+        assertEquals(1, d2.distributionType.size());
+        assertEquals(2, d1.size());
+        assertEquals(5, d2.size());
+    }
+
+    @Test
+    public void testDistributionRepresentationBulkRead() throws PropertyAccessException, AllocationException {
+        Distrib<DistributionRepresentation> d = new Distrib<>(DistributionRepresentation.class, 0);
+        alloc.allocate(d);
+        long[] buffer = new long[d.distributionType.size() + 1];
+        d.distributionType.read(buffer, 1);
+        assertEquals(0, buffer[0]);
+        assertEquals(DistributionRepresentation.class, d.distributionType.unmarshall(Arrays.copyOfRange(buffer, 1, buffer.length)));
+    }
+
     @Test
     public void testDistributionElementAccess() throws AllocationException, NullHeapException {
         Int a = new Int(), b = new Int(), c = new Int();
@@ -55,7 +76,7 @@ public class DistribTest {
     }
 
     @Test
-    public void testDistriubtionReachableLinks() throws AllocationException, NullHeapException {
+    public void testDistriubtionReachableLinks() throws AllocationException, PropertyAccessException {
         Int a = new Int(), b = new Int(), c = new Int();
         Distrib<DistributionRepresentation> distrib = new Distrib<>(DistributionRepresentation.class, 3);
         // example scenario, set up concrete values for the distribution, and use the distribution elements to point to them
@@ -2,9 +2,11 @@ package episcopal;
 
 import gc.AllocationException;
 import gc.BasicAllocator;
+import object.TagNotFoundException;
 import object.management.NullHeapException;
 import episcopal.representations.ClosureRepresentation;
 import object.management.PropertyAccessException;
+import object.properties.ClassProperty;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -31,6 +33,15 @@ public class FunctionTest {
         assertEquals(AlternateClosureRepresentation.class, f2.closureType.get());
     }
 
+    @Test
+    public void testClosureTypeIsReadWithTheEpiscopalRegistry() throws AllocationException, TagNotFoundException {
+        Function<ClosureRepresentation> function = new Function<>(ClosureRepresentation.class, 0);
+        alloc.allocate(function);
+        // the built-in representations have fixed tags, so heaps referring to them can be read back by another process
+        assertEquals(2, EpiscopalType.REGISTRY.tagOf(ClosureRepresentation.class));
+        assertEquals(ClosureRepresentation.class, ClassProperty.read(function.getHeap(), function.getAddress(), EpiscopalType.REGISTRY));
+    }
+
     @Test
     public void testDistributionElementAccess() throws AllocationException, NullHeapException {
         Int a = new Int(), b = new Int(), c = new Int();
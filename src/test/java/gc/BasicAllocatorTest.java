@@ -3,12 +3,21 @@ package gc;
 import static org.junit.Assert.*;
 
 import object.management.NullHeapException;
+import object.management.PropertyAccessException;
+import episcopal.Bool;
 import episcopal.Distrib;
 import episcopal.Int;
 import episcopal.representations.DistributionRepresentation;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
 public class BasicAllocatorTest {
 
     private BasicAllocator allocator;
@@ -28,9 +37,9 @@ public class BasicAllocatorTest {
     @Test
     public void testBasicAllocation() throws NullHeapException, AllocationException {
         Int a = new Int();
-        int freeBefore = allocator.freeSpace();
+        long freeBefore = allocator.freeSpace();
         allocator.allocate(a);
-        int freeAfter = allocator.freeSpace();
+        long freeAfter = allocator.freeSpace();
         a.value.set(10);
         assertEquals(a.size(), freeBefore - freeAfter);
         assertEquals(10, a.value.get().intValue());
@@ -39,9 +48,9 @@ public class BasicAllocatorTest {
     @Test
     public void testBasicAllocationAndFree() throws NullHeapException, AllocationException {
         Int a = new Int();
-        int freeBefore = allocator.freeSpace();
+        long freeBefore = allocator.freeSpace();
         allocator.allocate(a);
-        int freeAfter = allocator.freeSpace();
+        long freeAfter = allocator.freeSpace();
         a.value.set(10);
         assertEquals(a.size(), freeBefore - freeAfter);
         int freeRegions = allocator.freeRegions();
@@ -49,10 +58,63 @@ public class BasicAllocatorTest {
         allocator.free(a);
         freeAfter = allocator.freeSpace();
         assertEquals(freeAfter, freeBefore + a.size());
-        assertEquals(freeRegions + 1, allocator.freeRegions());
+        // the freed space is merged back into the free space after it
+        assertEquals(freeRegions, allocator.freeRegions());
+        assertEquals(allocator.heapSize(), allocator.freeSpace());
+    }
+
+    @Test
+    public void testFreeRegionCoalescing() throws NullHeapException, AllocationException {
+        Int a = new Int(), b = new Int(), c = new Int(), d = new Int();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        allocator.allocate(c);
+        allocator.allocate(d);
+        allocator.free(a);
+        allocator.free(c);
+        assertEquals("expected a separate free region for each freed object not beside other free space", 3, allocator.freeRegions());
+        allocator.free(b);
+        assertEquals("expected freeing an object between two free regions to merge them", 2, allocator.freeRegions());
+        allocator.free(d);
+        assertEquals(1, allocator.freeRegions());
         assertEquals(allocator.heapSize(), allocator.freeSpace());
     }
 
+    @Test
+    public void testBestFitAllocation() throws NullHeapException, AllocationException {
+        allocator = new BasicAllocator(new ArrayHeapStorage(64), FitPolicy.BEST_FIT);
+        Distrib<DistributionRepresentation> large = new Distrib<>(DistributionRepresentation.class, 5);
+        Int a = new Int(), b = new Int(), c = new Int(), d = new Int();
+        allocator.allocate(large);
+        allocator.allocate(a);
+        allocator.allocate(b);
+        allocator.allocate(c);
+        allocator.free(large);
+        allocator.free(b);
+        // the one word hole left by b is a better fit than the hole left by the distribution
+        allocator.allocate(d);
+        assertEquals(a.getAddress() + a.size(), d.getAddress());
+    }
+
+    @Test
+    public void testPrimitivePropertyAccess() throws NullHeapException, AllocationException {
+        Int a = new Int();
+        episcopal.Double b = new episcopal.Double();
+        Bool c = new Bool();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        allocator.allocate(c);
+        a.value.setInt(-7);
+        b.value.setDouble(0.25);
+        c.value.setBoolean(true);
+        assertEquals(-7, a.value.getInt());
+        assertEquals(-7, a.value.get().intValue());
+        assertEquals(0.25, b.value.getDouble(), 0);
+        assertEquals(0.25, b.value.get(), 0);
+        assertTrue(c.value.getBoolean());
+        assertTrue(c.value.get());
+    }
+
     @Test
     public void testValueGetAfterFree() throws NullHeapException, AllocationException {
         Int a = new Int();
@@ -85,8 +147,10 @@ public class BasicAllocatorTest {
 
     @Test
     public void testAllocationIntoFreeRegionWithExactSpace() throws NullHeapException, AllocationException {
-        Int a = new Int();
+        Int a = new Int(), neighbour = new Int();
         allocator.allocate(a);
+        // keep the object's space from merging with the free space after it
+        allocator.allocate(neighbour);
         a.value.set(42);
         int freeRegionsBefore = allocator.freeRegions();
         allocator.free(a);
@@ -104,6 +168,8 @@ public class BasicAllocatorTest {
         Int integer = new Int();
         assertTrue("distribution object with 5 elements should take more space than a single integer", distrib.size() > integer.size());
         allocator.allocate(distrib);
+        // keep the distribution's space from merging with the free space after it
+        allocator.allocate(new Int());
         int freeRegionsBefore = allocator.freeRegions();
         allocator.free(distrib);
         int freeRegionsAfter = allocator.freeRegions();
@@ -115,6 +181,208 @@ public class BasicAllocatorTest {
         freeRegionsBefore = freeRegionsAfter;
         allocator.free(integer);
         freeRegionsAfter = allocator.freeRegions();
-        assertEquals("expected there to be more free regions after freeing an object which divided a free region through allocation", freeRegionsAfter, freeRegionsBefore + 1);
+        assertEquals("expected freeing an object which divided a free region through allocation to merge the region again", freeRegionsAfter, freeRegionsBefore);
+    }
+
+    @Test
+    public void testConcurrentAllocation() throws Exception {
+        int threads = 4, perThread = 1000;
+        BasicAllocator concurrent = new BasicAllocator(new ArrayHeapStorage(1 << 16), FitPolicy.FIRST_FIT, 256);
+        Int[][] allocated = new Int[threads][perThread];
+        Thread[] workers = new Thread[threads];
+        Exception[] failures = new Exception[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        Int a = new Int();
+                        concurrent.allocate(a);
+                        a.value.setInt(thread * perThread + i);
+                        allocated[thread][i] = a;
+                    }
+                    concurrent.retireBuffer();
+                } catch (AllocationException | PropertyAccessException e) {
+                    failures[thread] = e;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        for (Exception failure : failures)
+            if (failure != null)
+                throw failure;
+        int size = new Int().size();
+        assertEquals(threads * perThread, concurrent.allocatedObjects());
+        assertEquals(concurrent.heapSize() - threads * perThread * size, concurrent.freeSpace());
+        // no two threads were given the same words
+        for (int t = 0; t < threads; t++)
+            for (int i = 0; i < perThread; i++)
+                assertEquals(t * perThread + i, allocated[t][i].value.getInt());
+        for (Int[] objects : allocated)
+            for (Int a : objects)
+                concurrent.free(a);
+        assertEquals(0, concurrent.allocatedObjects());
+        assertEquals(concurrent.heapSize(), concurrent.freeSpace());
+        assertEquals(1, concurrent.freeRegions());
+    }
+
+    @Test
+    public void testCompactionWaitsForBuffersToBeRetired() throws Exception {
+        BasicAllocator concurrent = new BasicAllocator(new ArrayHeapStorage(1 << 12), FitPolicy.FIRST_FIT, 256);
+        Int held = new Int(), retired = new Int();
+        Thread holder = new Thread(() -> {
+            try {
+                concurrent.allocate(held);
+            } catch (AllocationException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        holder.join();
+        // the holder never retired its buffer, so it could still allocate into words compaction would move
+        try {
+            concurrent.compact(Arrays.asList(held));
+            fail("compacted the heap while another thread held an allocation buffer");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        BasicAllocator retiring = new BasicAllocator(new ArrayHeapStorage(1 << 12), FitPolicy.FIRST_FIT, 256);
+        Thread retirer = new Thread(() -> {
+            try {
+                retiring.allocate(retired);
+                retiring.retireBuffer();
+            } catch (AllocationException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        retirer.start();
+        retirer.join();
+        // the calling thread's own buffer doesn't stop it compacting
+        Int own = new Int();
+        retiring.allocate(own);
+        retiring.compact(Arrays.asList(retired, own));
+        assertEquals(2, retiring.allocatedObjects());
+        assertEquals(retiring.heapSize() - retired.size() - own.size(), retiring.freeSpace());
+        assertEquals(1, retiring.freeRegions());
+    }
+
+    @Test
+    public void testInHeapFreeList() throws AllocationException, PropertyAccessException {
+        for (FitPolicy policy : FitPolicy.values()) {
+            BasicAllocator inHeap = new BasicAllocator(new ArrayHeapStorage(1 << 12), policy, 0, true);
+            Random random = new Random(42);
+            List<Distrib<DistributionRepresentation>> live = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                if (live.isEmpty() || random.nextInt(3) != 0) {
+                    Distrib<DistributionRepresentation> distrib = new Distrib<>(DistributionRepresentation.class, random.nextInt(6));
+                    try {
+                        inHeap.allocate(distrib);
+                    } catch (OutOfMemoryException e) {
+                        continue;
+                    }
+                    assertEquals("objects are placed on even addresses", 0, distrib.getAddress() % 2);
+                    live.add(distrib);
+                } else {
+                    inHeap.free(live.remove(random.nextInt(live.size())));
+                }
+            }
+            // the free list lives in the free words, so it must not have overwritten any live object
+            for (Distrib<DistributionRepresentation> distrib : live) {
+                assertEquals(DistributionRepresentation.class, distrib.distributionType.get());
+                assertEquals(distrib.reachableReferences().size(), distrib.nElements.getInt());
+            }
+            assertEquals(live.size(), inHeap.allocatedObjects());
+            for (Distrib<DistributionRepresentation> distrib : live)
+                inHeap.free(distrib);
+            assertEquals(inHeap.heapSize(), inHeap.freeSpace());
+            assertEquals(1, inHeap.freeRegions());
+        }
+    }
+
+    @Test
+    public void testFreeRegionTreeReusesRegions() {
+        FreeRegionTree tree = new FreeRegionTree();
+        TreeMap<Long, Long> model = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            long address = random.nextInt(1 << 12) * 8L;
+            if (model.containsKey(address)) {
+                tree.remove(address);
+                model.remove(address);
+            } else {
+                long size = 1 + random.nextInt(8);
+                tree.insert(address, size);
+                model.put(address, size);
+            }
+            long wanted = 1 + random.nextInt(8);
+            long first = Heap.NULL, best = Heap.NULL;
+            for (Map.Entry<Long, Long> region : model.entrySet()) {
+                if (region.getValue() >= wanted && first == Heap.NULL)
+                    first = region.getKey();
+                if (region.getValue() >= wanted && (best == Heap.NULL || region.getValue() < model.get(best)))
+                    best = region.getKey();
+            }
+            assertEquals(first, tree.find(wanted, FitPolicy.FIRST_FIT));
+            assertEquals(best, tree.find(wanted, FitPolicy.BEST_FIT));
+            assertEquals(model.size(), tree.count());
+        }
+        // a removed region is reused by the next insertion, rather than a new one being made
+        FreeRegion region = tree.firstFit(1);
+        tree.remove(region.getAddress());
+        tree.insert(1 << 16, 3);
+        assertSame(region, tree.ceilingRegion(1 << 16));
+        assertEquals(3, region.getSize());
+    }
+
+    @Test
+    public void testObjectStartWalk() throws AllocationException {
+        Int a = new Int(), b = new Int(), c = new Int();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        allocator.allocate(c);
+        allocator.free(b);
+        assertTrue(allocator.isObjectStart(a.getAddress()));
+        assertFalse(allocator.isObjectStart(b.getAddress()));
+        assertEquals(a.getAddress(), allocator.nextObjectStart(0));
+        assertEquals(c.getAddress(), allocator.nextObjectStart(a.getAddress() + 1));
+        assertEquals(Heap.NULL, allocator.nextObjectStart(c.getAddress() + 1));
+        // freeing an object twice must not free its space twice
+        long freeSpace = allocator.freeSpace();
+        allocator.free(b);
+        assertEquals(freeSpace, allocator.freeSpace());
+        assertEquals(2, allocator.allocatedObjects());
+    }
+
+    @Test
+    public void testCompact() throws PropertyAccessException, AllocationException {
+        List<Int> kept = new ArrayList<>(), freed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Int a = new Int(), b = new Int();
+            allocator.allocate(a);
+            allocator.allocate(b);
+            a.value.set(i);
+            kept.add(a);
+            freed.add(b);
+        }
+        for (Int b : freed)
+            allocator.free(b);
+        assertEquals(10, allocator.freeRegions());
+        assertTrue(allocator.fragmentation() > 0);
+        allocator.compact(kept);
+        assertEquals(1, allocator.freeRegions());
+        assertEquals(0, allocator.fragmentation(), 0);
+        for (int i = 0; i < kept.size(); i++) {
+            assertEquals(i, kept.get(i).getAddress());
+            assertEquals(i, kept.get(i).value.get().intValue());
+        }
+        // every allocated object must be given, or it would be overwritten
+        try {
+            allocator.compact(kept.subList(1, kept.size()));
+            fail("expected compaction to refuse an incomplete set of objects");
+        } catch (AllocationException e) {
+            // expected
+        }
     }
 }
@@ -0,0 +1,118 @@
+package gc;
+
+import static org.junit.Assert.*;
+
+import episcopal.Distrib;
+import episcopal.Function;
+import episcopal.Indirect;
+import episcopal.Int;
+import episcopal.representations.ClosureRepresentation;
+import episcopal.representations.DistributionRepresentation;
+import object.management.PropertyAccessException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BuddyAllocatorTest {
+
+    private static final int HEAP_SIZE = 1024;
+
+    private BuddyAllocator allocator;
+
+    @Before
+    public void before() {
+        allocator = new BuddyAllocator(HEAP_SIZE);
+    }
+
+    @Test
+    public void testNewAllocatorState() {
+        assertEquals(HEAP_SIZE, allocator.freeSpace());
+        assertEquals(HEAP_SIZE, allocator.largestFreeBlock());
+        assertEquals(0, allocator.allocatedObjects());
+    }
+
+    @Test
+    public void testBlocksAreAlignedPowersOfTwo() throws AllocationException, PropertyAccessException {
+        Int a = new Int();
+        Distrib<DistributionRepresentation> b = new Distrib<>(DistributionRepresentation.class, 3);
+        Int c = new Int();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        allocator.allocate(c);
+        a.value.set(1);
+        c.value.set(3);
+        // the integers each take a two word block, and the five word distribution an eight word block
+        assertEquals(0, a.getAddress());
+        assertEquals(2, c.getAddress());
+        assertEquals(8, b.getAddress());
+        assertEquals(HEAP_SIZE - 2 - 8 - 2, allocator.freeSpace());
+        assertEquals(1, a.value.get().intValue());
+        assertEquals(3, c.value.get().intValue());
+    }
+
+    @Test
+    public void testFreedBuddiesMerge() throws AllocationException {
+        Int[] values = new Int[HEAP_SIZE / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Int();
+            allocator.allocate(values[i]);
+        }
+        assertEquals(0, allocator.freeSpace());
+        try {
+            allocator.allocate(new Int());
+            fail("expected the heap to be full");
+        } catch (OutOfMemoryException e) {
+            // we expect this, do nothing...
+        }
+        for (Int value : values)
+            allocator.free(value);
+        assertEquals(HEAP_SIZE, allocator.freeSpace());
+        assertEquals("expected every block to merge back into one", HEAP_SIZE, allocator.largestFreeBlock());
+    }
+
+    @Test
+    public void testInvalidFreesAreIgnored() throws AllocationException, PropertyAccessException {
+        Int a = new Int();
+        Int b = new Int();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        b.value.set(2);
+        allocator.free(a);
+        long freeSpace = allocator.freeSpace();
+        // freeing twice must not free the block again, nor merge it with a buddy still in use
+        a.setHeap(allocator.getHeap());
+        allocator.free(a);
+        assertEquals(freeSpace, allocator.freeSpace());
+        assertEquals(1, allocator.allocatedObjects());
+        // nor may an object of another size at an allocated block's address free it
+        Distrib<DistributionRepresentation> larger = new Distrib<>(DistributionRepresentation.class, 3);
+        larger.setAddress(b.getAddress());
+        larger.setHeap(allocator.getHeap());
+        allocator.free(larger);
+        assertEquals(freeSpace, allocator.freeSpace());
+        assertEquals(1, allocator.allocatedObjects());
+        assertEquals(2, b.value.get().intValue());
+        allocator.free(b);
+        assertEquals(HEAP_SIZE, allocator.freeSpace());
+        assertEquals(0, allocator.allocatedObjects());
+    }
+
+    @Test
+    public void testTreadmillOverBuddyAllocator() throws AllocationException, PropertyAccessException {
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 1);
+        TreadmillAllocator treadmill = new TreadmillAllocator(allocator, 1, Arrays.asList(root), DebugMode.NONE);
+        Indirect<Int> indirect = new Indirect<>();
+        treadmill.allocate(indirect);
+        root.paramAddress(0).setInstance(indirect);
+        Int value = new Int();
+        treadmill.allocate(value);
+        indirect.value.setInstance(value);
+        value.value.set(42);
+        int usedNodes = treadmill.countNonWhiteNodes();
+        assertEquals(42, ((Int)((Indirect)root.paramAddress(0).getInstance()).value.getInstance()).value.get().intValue());
+        treadmill.free(indirect);
+        assertEquals(usedNodes - 1, treadmill.countNonWhiteNodes());
+        assertEquals(treadmill.currentHeapSize() - allocator.freeSpace(), treadmill.usedHeapSpace());
+    }
+}
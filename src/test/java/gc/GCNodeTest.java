@@ -3,6 +3,7 @@ package gc;
 import static org.junit.Assert.*;
 
 import episcopal.EpiscopalObject;
+import episcopal.EpiscopalType;
 import episcopal.Int;
 import object.management.PropertyAccessException;
 import org.junit.Before;
@@ -119,7 +120,7 @@ public class GCNodeTest {
             GCNode<Int> node = new GCNode<>(new Int());
             alloc.allocate(node);
             // set this node's data pointing to position i
-            node.data.set(i);
+            node.data.setLong(i);
             if (i == 0)
                 root = node;
             // link the previous node to this one
@@ -136,4 +137,24 @@ public class GCNodeTest {
             node = node.next.getInstance();
         }
     }
+
+    @Test
+    public void testHeaderFieldsShareOneWord() throws AllocationException, PropertyAccessException {
+        GCNode<EpiscopalObject> node = new GCNode<>(null);
+        assertEquals(4, node.size());
+        alloc.allocate(node);
+        node.setHeader(NodeType.GREY, EpiscopalType.DISTRIB, true);
+        assertEquals(NodeType.GREY, node.type());
+        assertEquals(EpiscopalType.DISTRIB, node.dataType());
+        assertTrue(node.isRoot());
+        // changing one field leaves the others alone
+        node.setType(NodeType.ECRU);
+        node.setRoot(false);
+        assertEquals(NodeType.ECRU, node.type());
+        assertEquals(EpiscopalType.DISTRIB, node.dataType());
+        assertFalse(node.isRoot());
+        node.setDataType(null);
+        assertNull(node.dataType());
+        assertEquals(NodeType.ECRU, node.type());
+    }
 }
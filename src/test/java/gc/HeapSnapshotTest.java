@@ -0,0 +1,95 @@
+package gc;
+
+import static org.junit.Assert.*;
+
+import episcopal.EpiscopalObject;
+import episcopal.Function;
+import episcopal.Indirect;
+import episcopal.Int;
+import episcopal.representations.ClosureRepresentation;
+import object.management.PropertyAccessException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+public class HeapSnapshotTest {
+
+    private static final int HEAP_SIZE = 1 << 16;
+
+    private Function<ClosureRepresentation> root;
+
+    private TreadmillAllocator createAllocator() throws AllocationException, PropertyAccessException {
+        root = new Function<>(ClosureRepresentation.class, 2);
+        TreadmillAllocator allocator = new TreadmillAllocator(HEAP_SIZE, 1, Arrays.asList(root), DebugMode.NONE);
+        Indirect<Int> indirect = new Indirect<>();
+        allocator.allocate(indirect);
+        root.paramAddress(0).setInstance(indirect);
+        Int value = new Int();
+        allocator.allocate(value);
+        indirect.value.setInstance(value);
+        value.value.set(42);
+        return allocator;
+    }
+
+    private static byte[] snapshot(TreadmillAllocator allocator) throws IOException, AllocationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        allocator.writeSnapshot(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSnapshotRestoresTreadmill() throws IOException, AllocationException, PropertyAccessException {
+        TreadmillAllocator allocator = createAllocator();
+        byte[] bytes = snapshot(allocator);
+        // only the words in use are written
+        assertTrue(bytes.length < HEAP_SIZE * Long.BYTES / 8);
+        TreadmillAllocator restored = TreadmillAllocator.readSnapshot(Channels.newChannel(new ByteArrayInputStream(bytes)), 1, DebugMode.NONE);
+        assertEquals(HEAP_SIZE, restored.currentHeapSize());
+        assertEquals(allocator.countNonWhiteNodes(), restored.countNonWhiteNodes());
+        assertEquals(allocator.countWhiteNodes(), restored.countWhiteNodes());
+        assertEquals(allocator.usedHeapSpace(), restored.usedHeapSpace());
+        List<EpiscopalObject> roots = restored.getRoots();
+        assertEquals(1, roots.size());
+        Function<?> restoredRoot = (Function<?>)roots.get(0);
+        Indirect<?> indirect = (Indirect<?>)restoredRoot.paramAddress(0).getInstance();
+        assertEquals(42, ((Int)indirect.value.getInstance()).value.get().intValue());
+        // the restored treadmill carries on allocating as normal
+        restored.allocate(new Int());
+        assertEquals(allocator.countNonWhiteNodes() + 1, restored.countNonWhiteNodes());
+    }
+
+    @Test
+    public void testSnapshotDescribesTreadmill() throws IOException, AllocationException, PropertyAccessException {
+        TreadmillAllocator allocator = createAllocator();
+        HeapSnapshot snapshot = HeapSnapshot.read(Channels.newChannel(new ByteArrayInputStream(snapshot(allocator))), size -> new ArrayHeapStorage((int)size));
+        assertEquals(HEAP_SIZE, snapshot.heapSize());
+        assertArrayEquals(new long[] { root.getAddress() }, snapshot.roots());
+        long free = 0;
+        for (FreeRegion region : snapshot.freeRegions())
+            free += region.getSize();
+        assertEquals(HEAP_SIZE - allocator.usedHeapSpace(), free);
+        TreadmillHeader header = new TreadmillHeader();
+        header.setHeap(new Heap(snapshot.getStorage()));
+        assertTrue(header.isValid());
+        for (NodeType colour : NodeType.values())
+            assertEquals(header.getFront(colour), snapshot.getFront(colour));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshot() throws IOException, AllocationException, PropertyAccessException {
+        byte[] bytes = snapshot(createAllocator());
+        bytes[bytes.length / 2] ^= 1;
+        TreadmillAllocator.readSnapshot(Channels.newChannel(new ByteArrayInputStream(bytes)), 1, DebugMode.NONE);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws IOException, AllocationException, PropertyAccessException {
+        byte[] bytes = snapshot(createAllocator());
+        TreadmillAllocator.readSnapshot(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))), 1, DebugMode.NONE);
+    }
+}
@@ -0,0 +1,86 @@
+package gc;
+
+import static org.junit.Assert.*;
+
+import episcopal.Indirect;
+import episcopal.Int;
+import object.management.PropertyAccessException;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class HeapStorageTest {
+
+    private void testWordAccess(HeapStorage storage) {
+        Heap heap = new Heap(storage);
+        assertEquals(16, heap.getSize());
+        heap.put(3, 42);
+        assertEquals(42, heap.get(3));
+        heap.put(4, new long[] { -1, Long.MAX_VALUE, Long.MIN_VALUE });
+        assertArrayEquals(new long[] { 42, -1, Long.MAX_VALUE, Long.MIN_VALUE, 0 }, heap.get(3, 5));
+    }
+
+    @Test
+    public void testArrayStorageWordAccess() {
+        testWordAccess(new ArrayHeapStorage(16));
+    }
+
+    @Test
+    public void testDirectStorageWordAccess() {
+        testWordAccess(new DirectHeapStorage(16));
+    }
+
+    @Test
+    public void testAllocationIntoDirectStorage() throws AllocationException, PropertyAccessException {
+        BasicAllocator allocator = new BasicAllocator(new DirectHeapStorage(64));
+        Int a = new Int(), b = new Int();
+        allocator.allocate(a);
+        allocator.allocate(b);
+        a.value.set(10);
+        b.value.set(-20);
+        assertEquals(10, a.value.get().intValue());
+        assertEquals(-20, b.value.get().intValue());
+        assertEquals(64 - a.size() - b.size(), allocator.freeSpace());
+    }
+
+    @Test
+    public void testChunkedStorageWordAccess() {
+        // chunks of 4 words, so the bulk put and get cross chunk boundaries
+        testWordAccess(new ChunkedHeapStorage(16, 4));
+    }
+
+    @Test
+    public void testChunkedStorageCommitsOnWrite() throws AllocationException {
+        ChunkedHeapStorage storage = new ChunkedHeapStorage(1 << 20, 1 << 10);
+        assertEquals(0, storage.committedSize());
+        BasicAllocator allocator = new BasicAllocator(storage);
+        for (int i = 0; i < 100; i++)
+            allocator.allocate(new Int());
+        // the objects fill the bottom of the heap, so only the chunks they span are committed
+        assertTrue(storage.committedSize() <= 2 << 10);
+        assertEquals(0, storage.get(1 << 19));
+        storage.put(1 << 19, 0);
+        assertTrue(storage.committedSize() <= 2 << 10);
+        storage.put((1 << 20) - 1, 7);
+        assertEquals(7, storage.get((1 << 20) - 1));
+    }
+
+    @Test
+    public void testChunkedStorageBeyondIntAddresses() throws AllocationException, PropertyAccessException {
+        long size = 1L << 33;
+        BasicAllocator allocator = new BasicAllocator(new ChunkedHeapStorage(size));
+        assertEquals(size, allocator.heapSize());
+        // place an object at the very top of the heap, well past 2^31
+        Int high = new Int();
+        high.setAddress(size - high.size());
+        allocator.restore(Collections.singletonList(high));
+        high.value.set(42);
+        Indirect<Int> low = new Indirect<>();
+        allocator.allocate(low);
+        low.value.setInstance(high);
+        assertEquals(0, low.getAddress());
+        assertEquals(size - high.size(), low.value.getLong());
+        assertEquals(42, low.value.getInstance().value.getInt());
+        assertEquals(size - high.size() - low.size(), allocator.freeSpace());
+    }
+}
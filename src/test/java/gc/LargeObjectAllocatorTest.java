@@ -0,0 +1,105 @@
+package gc;
+
+import static org.junit.Assert.*;
+
+import episcopal.Distrib;
+import episcopal.EpiscopalObject;
+import episcopal.Function;
+import episcopal.Int;
+import episcopal.representations.ClosureRepresentation;
+import episcopal.representations.DistributionRepresentation;
+import object.management.PropertyAccessException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LargeObjectAllocatorTest {
+
+    private static final int HEAP_SIZE = 1 << 14;
+
+    private static final int PAGE_SIZE = 64;
+
+    private LargeObjectAllocator allocator;
+
+    @Before
+    public void before() throws AllocationException {
+        allocator = new LargeObjectAllocator(new BasicAllocator(new ArrayHeapStorage(HEAP_SIZE)), HEAP_SIZE / 2, PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Test
+    public void testNewAllocatorState() {
+        assertEquals(HEAP_SIZE, allocator.freeSpace());
+        assertEquals(HEAP_SIZE / 2, allocator.largeSpaceSize());
+        assertEquals(HEAP_SIZE / 2, allocator.largeSpaceFree());
+        assertEquals(0, allocator.allocatedObjects());
+    }
+
+    @Test
+    public void testLargeObjectsArePageAligned() throws AllocationException, PropertyAccessException {
+        Int small = new Int();
+        Distrib<DistributionRepresentation> a = new Distrib<>(DistributionRepresentation.class, 100);
+        Distrib<DistributionRepresentation> b = new Distrib<>(DistributionRepresentation.class, 62);
+        allocator.allocate(small);
+        allocator.allocate(a);
+        allocator.allocate(b);
+        assertFalse(allocator.isLarge(small.getAddress()));
+        assertTrue(allocator.isLarge(a.getAddress()));
+        assertTrue(allocator.isLarge(b.getAddress()));
+        assertEquals(0, a.getAddress() % PAGE_SIZE);
+        // a takes two pages, and b exactly fills the page after them
+        assertEquals(a.getAddress() + 2 * PAGE_SIZE, b.getAddress());
+        assertEquals(HEAP_SIZE / 2 - 3 * PAGE_SIZE, allocator.largeSpaceFree());
+        assertEquals(2, allocator.largeObjects());
+        assertEquals(3, allocator.allocatedObjects());
+        // the small object allocator never sees the large objects
+        assertEquals(1, allocator.getSmallObjectAllocator().freeRegions());
+        a.elementAddress(0).setInstance(small);
+        assertEquals(small, a.elementAddress(0).getInstance());
+        allocator.free(a);
+        allocator.free(a);
+        assertEquals(HEAP_SIZE / 2 - PAGE_SIZE, allocator.largeSpaceFree());
+        assertNull(a.getHeap());
+        // the freed pages are reused by the next large object which fits in them
+        Distrib<DistributionRepresentation> c = new Distrib<>(DistributionRepresentation.class, 100);
+        allocator.allocate(c);
+        assertEquals(b.getAddress() - 2 * PAGE_SIZE, c.getAddress());
+    }
+
+    @Test(expected = OutOfMemoryException.class)
+    public void testLargeObjectSpaceIsSeparate() throws AllocationException {
+        // there is plenty of small object space, but large objects never use it
+        allocator.allocate(new Distrib<>(DistributionRepresentation.class, HEAP_SIZE / 2));
+    }
+
+    @Test
+    public void testRestore() throws AllocationException {
+        Int small = new Int();
+        Distrib<DistributionRepresentation> large = new Distrib<>(DistributionRepresentation.class, 100);
+        allocator.allocate(small);
+        allocator.allocate(large);
+        long free = allocator.freeSpace();
+        allocator.restore(Arrays.asList(small, large));
+        assertEquals(free, allocator.freeSpace());
+        assertEquals(2, allocator.allocatedObjects());
+        allocator.restore(Collections.<Int>emptyList());
+        assertEquals(HEAP_SIZE, allocator.freeSpace());
+    }
+
+    @Test
+    public void testLargeObjectsAreCollectedByTheTreadmill() throws AllocationException, PropertyAccessException {
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 1);
+        TreadmillAllocator treadmill = new TreadmillAllocator(allocator, 1, Arrays.<EpiscopalObject>asList(root), DebugMode.NONE);
+        Distrib<DistributionRepresentation> kept = new Distrib<>(DistributionRepresentation.class, 1000);
+        treadmill.allocate(kept);
+        root.paramAddress(0).setInstance(kept);
+        for (int i = 0; i < 5; i++)
+            treadmill.allocate(new Distrib<>(DistributionRepresentation.class, 1000));
+        long flips = treadmill.getStats().flips();
+        while (treadmill.getStats().flips() < flips + 2)
+            treadmill.allocate(new Int());
+        assertEquals(1, allocator.largeObjects());
+        assertNotNull(kept.getHeap());
+    }
+}
@@ -0,0 +1,107 @@
+package gc;
+
+import static org.junit.Assert.*;
+
+import episcopal.EpiscopalObject;
+import episcopal.Function;
+import episcopal.Indirect;
+import episcopal.Int;
+import episcopal.representations.ClosureRepresentation;
+import object.management.PropertyAccessException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class MappedHeapStorageTest {
+
+    private static final int HEAP_SIZE = 1024;
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("heap", ".bin");
+        Files.delete(file);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testWordsSurviveReopening() throws IOException {
+        try (MappedHeapStorage storage = new MappedHeapStorage(file, HEAP_SIZE)) {
+            assertFalse(storage.isRestored());
+            storage.put(10, 42);
+        }
+        try (MappedHeapStorage storage = new MappedHeapStorage(file)) {
+            assertTrue(storage.isRestored());
+            assertEquals(HEAP_SIZE, storage.size());
+            assertEquals(42, storage.get(10));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReopenWithDifferentSize() throws IOException {
+        new MappedHeapStorage(file, HEAP_SIZE).close();
+        new MappedHeapStorage(file, HEAP_SIZE * 2).close();
+    }
+
+    @Test
+    public void testTreadmillSurvivesReopening() throws IOException, AllocationException, PropertyAccessException {
+        int usedNodes, whiteNodes;
+        long usedSpace;
+        try (MappedHeapStorage storage = new MappedHeapStorage(file, HEAP_SIZE)) {
+            Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 2);
+            TreadmillAllocator allocator = new TreadmillAllocator(storage, 1, Arrays.asList(root), DebugMode.NONE);
+            Indirect<Int> indirect = new Indirect<>();
+            allocator.allocate(indirect);
+            root.paramAddress(0).setInstance(indirect);
+            Int value = new Int();
+            allocator.allocate(value);
+            indirect.value.setInstance(value);
+            // refer to an object before it is allocated, so the heap only holds its address once persisted
+            Indirect<Int> late = new Indirect<>();
+            allocator.allocate(late);
+            Int lateValue = new Int();
+            late.value.setInstance(lateValue);
+            root.paramAddress(1).setInstance(late);
+            allocator.allocate(lateValue);
+            lateValue.value.set(7);
+            value.value.set(42);
+            usedNodes = allocator.countNonWhiteNodes();
+            whiteNodes = allocator.countWhiteNodes();
+            usedSpace = allocator.usedHeapSpace();
+            allocator.persist();
+        }
+        try (MappedHeapStorage storage = new MappedHeapStorage(file, HEAP_SIZE)) {
+            assertTrue(storage.isRestored());
+            TreadmillAllocator allocator = new TreadmillAllocator(storage, 1, DebugMode.NONE);
+            assertEquals(usedNodes, allocator.countNonWhiteNodes());
+            assertEquals(whiteNodes, allocator.countWhiteNodes());
+            assertEquals(usedSpace, allocator.usedHeapSpace());
+            List<EpiscopalObject> roots = allocator.getRoots();
+            assertEquals(1, roots.size());
+            assertTrue(roots.get(0) instanceof Function);
+            Function<?> root = (Function<?>)roots.get(0);
+            assertEquals(ClosureRepresentation.class, root.closureType.get());
+            assertEquals(2, root.nParams.get().intValue());
+            Indirect<?> late = (Indirect<?>)root.paramAddress(1).getInstance();
+            assertEquals(7, ((Int)late.value.getInstance()).value.get().intValue());
+            Indirect<?> indirect = (Indirect<?>)root.paramAddress(0).getInstance();
+            assertEquals(42, ((Int)indirect.value.getInstance()).value.get().intValue());
+            // the restored treadmill carries on collecting as normal
+            allocator.free(indirect);
+            assertNull(indirect.getHeap());
+            assertTrue(allocator.countNonWhiteNodes() < usedNodes);
+            assertEquals(7, ((Int)late.value.getInstance()).value.get().intValue());
+        }
+    }
+}
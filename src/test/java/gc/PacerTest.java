@@ -0,0 +1,34 @@
+package gc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PacerTest {
+
+    @Test
+    public void testBudgetKeepsUpWithAllocation() {
+        Pacer pacer = new Pacer(1000);
+        // with as much used as free space, each word allocated is owed a word of scanning
+        assertEquals(4, pacer.budget(4, 100, 100));
+        // as free space runs out, more scanning is owed per word allocated
+        assertEquals(40, pacer.budget(4, 100, 10));
+        // scanning never falls behind allocation
+        assertEquals(4, pacer.budget(4, 0, 100));
+    }
+
+    @Test
+    public void testBudgetIsBoundedByPause() {
+        Pacer pacer = new Pacer(1);
+        // scanning a word has been measured to take a microsecond, so only one fits in the pause
+        for (int i = 0; i < 100; i++)
+            pacer.record(10, 10_000);
+        assertEquals(1000, pacer.getNanosPerWord(), 1);
+        assertEquals(1, pacer.budget(4, 1000, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPauseMustBePositive() {
+        new Pacer(0);
+    }
+}
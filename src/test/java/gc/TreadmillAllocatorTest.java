@@ -1,14 +1,23 @@
 package gc;
 
+import episcopal.Distrib;
+import episcopal.EpiscopalObject;
 import episcopal.Function;
 import episcopal.Indirect;
 import episcopal.Int;
 import episcopal.representations.ClosureRepresentation;
+import episcopal.representations.DistributionRepresentation;
 import object.management.PropertyAccessException;
+import object.properties.ReferenceProperty;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -75,4 +84,382 @@ public class TreadmillAllocatorTest {
         usedNodesAfter = test1.countNonWhiteNodes();
         assertEquals("expected number of GC nodes in use to decrease after freeing objects with other allocated references", usedNodesBefore - 8, usedNodesAfter);
     }
+
+    @Test
+    public void testDeepGraphIsMarked() throws Throwable {
+        // a chain this deep overflows a small stack if marking recurses along references
+        int depth = 10000;
+        Throwable[] failure = new Throwable[1];
+        Thread marker = new Thread(null, () -> {
+            try {
+                markDeepChain(depth);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "deep-graph-marker", 128 * 1024);
+        marker.start();
+        marker.join();
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    private static void markDeepChain(int depth) throws AllocationException, PropertyAccessException {
+        Indirect<Indirect> root = new Indirect<>(null);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 18), 1, Arrays.asList(root), DebugMode.NONE);
+        Indirect<Indirect> last = root;
+        for (int i = 0; i < depth; i++) {
+            Indirect<Indirect> next = new Indirect<>(null);
+            allocator.allocate(next);
+            last.value.setInstance(next);
+            last = next;
+        }
+        // every object in the chain is reachable from the root, so none of them may be collected
+        allocator.allocate(new Int());
+        assertEquals(depth + 2, allocator.countNonWhiteNodes());
+        // cutting the chain off at the root leaves all of it unreachable
+        root.value.setInstance(null);
+        // the chain is condemned by one flip and collected by the next
+        long flips = allocator.getStats().flips();
+        while (allocator.getStats().flips() < flips + 2)
+            allocator.allocate(new Int());
+        assertTrue(allocator.countNonWhiteNodes() < depth);
+    }
+
+    @Test
+    public void testPacedMarking() throws AllocationException, PropertyAccessException {
+        Indirect<Indirect> root = new Indirect<>(null);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        allocator.setPacer(new Pacer(100));
+        Indirect<Indirect> last = root;
+        for (int i = 0; i < 100; i++) {
+            Indirect<Indirect> next = new Indirect<>(null);
+            allocator.allocate(next);
+            last.value.setInstance(next);
+            last = next;
+        }
+        allocator.allocate(new Int());
+        assertEquals(102, allocator.countNonWhiteNodes());
+        root.value.setInstance(null);
+        // the chain is condemned by one flip and collected by the next
+        long flips = allocator.getStats().flips();
+        while (allocator.getStats().flips() < flips + 2)
+            allocator.allocate(new Int());
+        assertTrue(allocator.countNonWhiteNodes() < 100);
+    }
+
+    @Test
+    public void testFreeAll() throws AllocationException, PropertyAccessException {
+        // keep every freed node, so they can be counted
+        test1.setMaxWhiteRatio(Double.POSITIVE_INFINITY);
+        List<EpiscopalObject> values = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Int value = new Int();
+            test1.allocate(value);
+            test1RootFunction.paramAddress(i).setInstance(value);
+            values.add(value);
+        }
+        int usedNodesBefore = test1.countNonWhiteNodes();
+        int whiteNodesBefore = test1.countWhiteNodes();
+        test1.freeAll(values);
+        assertEquals(usedNodesBefore - 4, test1.countNonWhiteNodes());
+        assertEquals(whiteNodesBefore + 4, test1.countWhiteNodes());
+        for (EpiscopalObject value : values)
+            assertNull(value.getGCNode());
+    }
+
+    @Test
+    public void testStats() throws AllocationException, PropertyAccessException {
+        Int value = new Int();
+        test1.allocate(value);
+        test1RootFunction.paramAddress(0).setInstance(value);
+        TreadmillStats stats = test1.getStats();
+        assertEquals(1, stats.allocations());
+        assertEquals(test1.countWhiteNodes(), stats.nodes(NodeType.WHITE));
+        assertEquals(test1.countNonWhiteNodes(), stats.nodes() - stats.nodes(NodeType.WHITE));
+        assertEquals(test1.usedHeapSpace(), stats.usedSpace());
+        test1.free(value);
+        TreadmillStats after = test1.getStats();
+        assertEquals(1, after.frees());
+        assertEquals(stats.flips() + 1, after.flips());
+        assertEquals(stats.nodes(NodeType.WHITE) + 1, after.nodes(NodeType.WHITE));
+        assertEquals(stats.usedSpace() - value.size(), after.usedSpace());
+    }
+
+    @Test
+    public void testWhitePoolGrowsGeometrically() throws AllocationException, PropertyAccessException {
+        Indirect<Indirect> root = new Indirect<>(null);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        allocator.setGrowthFactor(1);
+        Indirect<Indirect> last = root;
+        int objects = 1000;
+        for (int i = 0; i < objects; i++) {
+            Indirect<Indirect> next = new Indirect<>(null);
+            allocator.allocate(next);
+            last.value.setInstance(next);
+            last = next;
+        }
+        // doubling the treadmill each time it fills up takes a logarithmic number of flips
+        assertTrue(allocator.getStats().flips() <= 2 * (32 - Integer.numberOfLeadingZeros(objects)));
+        assertEquals(objects + 1, allocator.countNonWhiteNodes());
+    }
+
+    @Test
+    public void testWhitePoolShrinksAfterBurst() throws AllocationException, PropertyAccessException {
+        Indirect<Indirect> root = new Indirect<>(null);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        List<EpiscopalObject> burst = new ArrayList<>();
+        Indirect<Indirect> last = root;
+        for (int i = 0; i < 500; i++) {
+            Indirect<Indirect> next = new Indirect<>(null);
+            allocator.allocate(next);
+            last.value.setInstance(next);
+            last = next;
+            burst.add(next);
+        }
+        int peakNodes = allocator.getStats().nodes();
+        long peakUsed = allocator.usedHeapSpace();
+        root.value.setInstance(null);
+        allocator.freeAll(burst);
+        // only the root is live, so almost all of the nodes' space goes back to the heap
+        TreadmillStats stats = allocator.getStats();
+        assertTrue(stats.nodes(NodeType.WHITE) <= Math.ceil((stats.nodes() - stats.nodes(NodeType.WHITE)) * allocator.getMaxWhiteRatio()));
+        assertTrue(stats.nodes() < peakNodes / 10);
+        assertTrue(stats.usedSpace() < peakUsed / 10);
+    }
+
+    /**
+     * Build a random graph hanging off a root, drop part of it, and collect.
+     * @return the number of non-white nodes after collection
+     */
+    private int collectRandomGraph(ForkJoinPool pool) throws AllocationException, PropertyAccessException {
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 8);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 18), 1, Arrays.asList(root), DebugMode.NONE);
+        allocator.setMarkingPool(pool);
+        Random random = new Random(7);
+        // the empty parameters of the tree so far, so that linking a new object never drops an existing one
+        List<ReferenceProperty<EpiscopalObject>> slots = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            slots.add(root.paramAddress(i));
+        for (int i = 0; i < 3000; i++) {
+            Function<ClosureRepresentation> object = new Function<>(ClosureRepresentation.class, 2);
+            allocator.allocate(object);
+            slots.remove(random.nextInt(slots.size())).setInstance(object);
+            slots.add(object.paramAddress(0));
+            slots.add(object.paramAddress(1));
+        }
+        // cut some of the graph away from the root
+        for (int i = 0; i < 4; i++)
+            root.paramAddress(i).setInstance(null);
+        long flips = allocator.getStats().flips();
+        while (allocator.getStats().flips() < flips + 2)
+            allocator.allocate(new Int());
+        allocator.allocate(new Int());
+        return allocator.countNonWhiteNodes();
+    }
+
+    @Test
+    public void testParallelMarkingMatchesSequential() throws AllocationException, PropertyAccessException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(collectRandomGraph(null), collectRandomGraph(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteBarrierGreysStoredTarget() throws AllocationException, PropertyAccessException {
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 1);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        // without a collector or nursery, stores take no lock and are not told to any barrier
+        assertNull(root.getHeap().getWriteBarrier());
+        // a nursery too small for any of these objects installs the barrier, while they are still allocated on the treadmill
+        allocator.setNurserySize(1);
+        assertNotNull(root.getHeap().getWriteBarrier());
+        Function<ClosureRepresentation> a = new Function<>(ClosureRepresentation.class, 1), x = new Function<>(ClosureRepresentation.class, 0);
+        allocator.allocate(a);
+        root.paramAddress(0).setInstance(a);
+        allocator.allocate(x);
+        a.paramAddress(0).setInstance(x);
+        // flipping leaves the root grey, and a and x ecru
+        Function<ClosureRepresentation> junk = new Function<>(ClosureRepresentation.class, 0);
+        allocator.allocate(junk);
+        allocator.free(junk);
+        // the next allocation scans the root, making it black and a grey
+        junk = new Function<>(ClosureRepresentation.class, 0);
+        allocator.allocate(junk);
+        assertEquals(NodeType.BLACK, root.getGCNode().type());
+        // move x from a (yet to be scanned) to the root (already scanned)
+        root.paramAddress(0).setInstance(x);
+        a.paramAddress(0).setInstance(null);
+        assertEquals(NodeType.GREY, x.getGCNode().type());
+        allocator.free(junk);
+        allocator.free(a);
+        assertNotNull(x.getHeap());
+        allocator.setNurserySize(0);
+        assertNull(root.getHeap().getWriteBarrier());
+    }
+
+    @Test
+    public void testBackgroundCollector() throws AllocationException, PropertyAccessException, InterruptedException {
+        int depth = 300;
+        Indirect<Indirect> root = new Indirect<>(null);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        allocator.startCollector(1, 16);
+        assertTrue(allocator.isCollectorRunning());
+        assertNotNull(root.getHeap().getWriteBarrier());
+        try {
+            // the chain is built while the collector marks and sweeps, and none of it may be swept
+            List<Indirect<Indirect>> chain = new ArrayList<>();
+            Indirect<Indirect> last = root;
+            for (int i = 0; i < depth; i++) {
+                Indirect<Indirect> next = new Indirect<>(null);
+                allocator.allocate(next);
+                last.value.setInstance(next);
+                chain.add(next);
+                last = next;
+                for (Indirect<Indirect> linked : chain)
+                    assertNotNull(linked.getHeap());
+            }
+            // the collector only flips after allocations, so keep allocating garbage until the cut off chain is swept
+            root.value.setInstance(null);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (chain.stream().anyMatch(linked -> linked.getHeap() != null) && System.currentTimeMillis() < deadline) {
+                allocator.allocate(new Int());
+                Thread.sleep(5);
+            }
+            for (Indirect<Indirect> linked : chain)
+                assertNull(linked.getHeap());
+        } finally {
+            allocator.stopCollector();
+        }
+        assertFalse(allocator.isCollectorRunning());
+        assertNull(root.getHeap().getWriteBarrier());
+        assertTrue(allocator.getStats().collected() >= depth);
+    }
+
+    @Test
+    public void testNurseryPromotesOnlyReachableObjects() throws AllocationException, PropertyAccessException {
+        int length = 50;
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 2);
+        TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 16), 1, Arrays.asList(root), DebugMode.NONE);
+        allocator.setNurserySize(64);
+        assertEquals(64, allocator.getNurserySize());
+        // a chain of functions, each holding an int, with plenty of garbage allocated in between
+        Function<ClosureRepresentation> last = root;
+        for (int i = 0; i < length; i++) {
+            for (int j = 0; j < 10; j++) {
+                Int temporary = new Int();
+                allocator.allocate(temporary);
+                temporary.value.setInt(-1);
+            }
+            // each object is referenced from the heap before the next allocation, which may collect the nursery
+            Function<ClosureRepresentation> next = new Function<>(ClosureRepresentation.class, 2);
+            allocator.allocate(next);
+            last.paramAddress(0).setInstance(next);
+            Int value = new Int();
+            allocator.allocate(value);
+            next.paramAddress(1).setInstance(value);
+            value.value.setInt(i);
+            last = next;
+        }
+        assertTrue(allocator.getStats().nurseryCollections() > 0);
+        // emptying the nursery promotes the rest of the chain
+        allocator.setNurserySize(0);
+        TreadmillStats stats = allocator.getStats();
+        assertEquals(2 * length, stats.promoted());
+        // the garbage never reached the treadmill
+        assertEquals(2 * length + 1, allocator.countNonWhiteNodes());
+        EpiscopalObject function = root.paramAddress(0).getInstance();
+        for (int i = 0; i < length; i++) {
+            Function<?> f = (Function<?>)function;
+            assertNotNull(f.getGCNode());
+            assertEquals(i, ((Int)f.paramAddress(1).getInstance()).value.getInt());
+            function = f.paramAddress(0).getInstance();
+        }
+        assertNull(function);
+    }
+
+    @Test
+    public void testCompactionDuringNurseryCollection() throws AllocationException, PropertyAccessException {
+        // promoting survivors may flip and compact the heap part way through, which must not move the survivors already
+        // promoted a second time
+        for (int seed = 0; seed < 100; seed++) {
+            Random random = new Random(seed);
+            Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 32);
+            TreadmillAllocator allocator = new TreadmillAllocator(new ArrayHeapStorage(1 << 12), 1, Arrays.asList(root), DebugMode.NONE);
+            // garbage below the nursery lets compaction slide the nursery down
+            for (int i = 0; i < 10; i++)
+                allocator.allocate(new Distrib<>(DistributionRepresentation.class, 40));
+            allocator.setNurserySize(128);
+            // keep the white pool small, so that promoting survivors runs out of nodes and flips
+            allocator.setGrowthFactor(0);
+            allocator.setMaxWhiteRatio(0);
+            allocator.setCompactionThreshold(0);
+            int[] expected = new int[32];
+            Arrays.fill(expected, -1);
+            for (int i = 0; i < 500; i++) {
+                if (random.nextInt(8) == 0)
+                    allocator.allocate(new Distrib<>(DistributionRepresentation.class, 1 + random.nextInt(160)));
+                int slot = random.nextInt(expected.length);
+                Int value = new Int();
+                allocator.allocate(value);
+                root.paramAddress(slot).setInstance(value);
+                value.value.setInt(i);
+                expected[slot] = i;
+                for (int j = 0; j < expected.length; j++)
+                    if (expected[j] >= 0)
+                        assertEquals("seed " + seed, expected[j], ((Int)root.paramAddress(j).getInstance()).value.getInt());
+            }
+        }
+    }
+
+    @Test
+    public void testCompactionMakesRoomForLargeObject() throws AllocationException, PropertyAccessException {
+        BasicAllocator basicAllocator = new BasicAllocator(new ArrayHeapStorage(1 << 12));
+        Function<ClosureRepresentation> root = new Function<>(ClosureRepresentation.class, 2);
+        TreadmillAllocator allocator = new TreadmillAllocator(basicAllocator, 1, Arrays.asList(root), DebugMode.NONE);
+        // grow the treadmill one node at a time and never shrink it, so that nodes don't fill the holes left below
+        allocator.setGrowthFactor(0);
+        allocator.setMaxWhiteRatio(Double.POSITIVE_INFINITY);
+        // a chain of functions, each holding an int
+        List<Function<ClosureRepresentation>> chain = new ArrayList<>();
+        Function<ClosureRepresentation> last = root;
+        while (basicAllocator.freeSpace() > 256) {
+            Function<ClosureRepresentation> next = new Function<>(ClosureRepresentation.class, 2);
+            allocator.allocate(next);
+            last.paramAddress(0).setInstance(next);
+            Int value = new Int();
+            allocator.allocate(value);
+            next.paramAddress(1).setInstance(value);
+            chain.add(next);
+            last = next;
+        }
+        // dropping the ints and collecting them leaves a one word hole after each function
+        for (Function<ClosureRepresentation> function : chain)
+            function.paramAddress(1).setInstance(null);
+        allocator.freeAll(Collections.<EpiscopalObject>emptyList());
+        allocator.freeAll(Collections.<EpiscopalObject>emptyList());
+        Distrib<DistributionRepresentation> large = new Distrib<>(DistributionRepresentation.class, (int)basicAllocator.largestFreeRegion());
+        assertTrue(basicAllocator.freeSpace() > 2 * large.size());
+        try {
+            allocator.allocate(large);
+            fail("expected the fragmented heap to have no region large enough");
+        } catch (OutOfMemoryException e) {
+            // expected
+        }
+        allocator.setCompactionThreshold(0.5);
+        allocator.allocate(large);
+        root.paramAddress(1).setInstance(large);
+        assertEquals(1, basicAllocator.freeRegions());
+        // the chain has moved, and the heap itself holds each link's new address (after the closure type and count)
+        Heap heap = basicAllocator.getHeap();
+        for (int i = 0; i + 1 < chain.size(); i++)
+            assertEquals(chain.get(i + 1).getAddress(), heap.get(chain.get(i).getAddress() + 2));
+        // the treadmill still collects after its nodes have moved
+        allocator.freeAll(Collections.<EpiscopalObject>emptyList());
+        allocator.freeAll(Collections.<EpiscopalObject>emptyList());
+        assertEquals(chain.size() + 2, allocator.countNonWhiteNodes());
+        assertNotNull(large.getHeap());
+    }
 }